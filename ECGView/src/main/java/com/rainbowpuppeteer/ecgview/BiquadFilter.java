@@ -0,0 +1,125 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.util.Log;
+
+/**
+ * Biquad Filter
+ * Second order IIR stage, transposed direct form II with double precision state
+ *
+ * Coefficients of the factories follow the audio EQ cookbook,
+ * y = (b0 x + b1 x[-1] + b2 x[-2] - a1 y[-1] - a2 y[-2]), normalized so a0 = 1
+ * Higher orders are made of several stages, e.g. a 4th order Butterworth low-pass
+ * is two low-pass stages of q 0.5412 and 1.3066
+ *
+ * @author RainbowPuppeteer
+ * @see SampleFilter
+ */
+public final class BiquadFilter extends SampleFilter {
+
+    private static final String TAG = "ECGView.BiquadFilter";
+
+    /**
+     * Q of a 2nd order Butterworth response
+     */
+    public static final double BUTTERWORTH_Q = Math.sqrt(0.5);
+
+    private final double b0, b1, b2, a1, a2;
+
+    /**
+     * State by channel
+     */
+    private double[] mZ1 = new double[0];
+    private double[] mZ2 = new double[0];
+
+    /**
+     * Constructor, coefficients normalized so a0 = 1
+     */
+    public BiquadFilter(double b0, double b1, double b2, double a1, double a2) {
+        this.b0 = b0;
+        this.b1 = b1;
+        this.b2 = b2;
+        this.a1 = a1;
+        this.a2 = a2;
+    }
+
+    /**
+     * Low-pass, e.g. 40 Hz for monitoring or 150 Hz for diagnosis
+     *
+     * @param fs sample rate
+     * @param f0 cutoff frequency, below fs / 2
+     * @param q quality factor, BUTTERWORTH_Q for a flat pass band
+     * @return filter, null if illegal
+     */
+    public static BiquadFilter lowPass(double fs, double f0, double q) {
+        if (!check(fs, f0, q))
+            return null;
+        final double w0 = 2 * Math.PI * f0 / fs;
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * q);
+        return normalized((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    /**
+     * High-pass, e.g. 0.5 Hz to remove the baseline wander
+     *
+     * @see #lowPass(double, double, double)
+     */
+    public static BiquadFilter highPass(double fs, double f0, double q) {
+        if (!check(fs, f0, q))
+            return null;
+        final double w0 = 2 * Math.PI * f0 / fs;
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * q);
+        return normalized((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    /**
+     * Notch, e.g. 50 or 60 Hz mains interference
+     * A higher q gives a narrower notch that settles slower
+     *
+     * @param fs sample rate
+     * @param f0 rejected frequency, below fs / 2
+     * @param q quality factor, e.g. 30
+     * @return filter, null if illegal
+     */
+    public static BiquadFilter notch(double fs, double f0, double q) {
+        if (!check(fs, f0, q))
+            return null;
+        final double w0 = 2 * Math.PI * f0 / fs;
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * q);
+        return normalized(1, -2 * cos, 1, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    private static BiquadFilter normalized(double b0, double b1, double b2, double a0, double a1, double a2) {
+        return new BiquadFilter(b0 / a0, b1 / a0, b2 / a0, a1 / a0, a2 / a0);
+    }
+
+    private static boolean check(double fs, double f0, double q) {
+        if (!(fs > 0) || !(f0 > 0) || !(f0 < fs / 2) || !(q > 0)) {
+            Log.e(TAG, "Illegal argument");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void reset(int channels) {
+        mZ1 = new double[channels];
+        mZ2 = new double[channels];
+    }
+
+    @Override
+    public void process(int channel, float[] y, int offset, int length) {
+        double z1 = mZ1[channel], z2 = mZ2[channel];
+        for (int i = offset; i < offset + length; i++) {
+            final double x = y[i];
+            final double out = b0 * x + z1;
+            z1 = b1 * x - a1 * out + z2;
+            z2 = b2 * x - a2 * out;
+            y[i] = (float) out;
+        }
+        mZ1[channel] = z1;
+        mZ2[channel] = z2;
+    }
+}
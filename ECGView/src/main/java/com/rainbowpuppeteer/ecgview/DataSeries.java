@@ -9,8 +9,10 @@ import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 
 /**
  * Data Series
@@ -42,9 +44,86 @@ public class DataSeries {
      * @see #setGraphType(int)
      * @see #appendDataPoint(Point, boolean)
      * @see #appendDataPoint(double, double, boolean)
+     * @see #appendDataPoints(float[], int, int, double, boolean)
      */
     public static final int DYNAMIC_GRAPH = 1;
 
+    /**
+     * Sweep Graph Code
+     * Like the dynamic graph, but the line stays still and a cursor
+     * sweeps from left to right, overwriting the oldest points
+     * behind a small erase gap, as on bedside monitors
+     * Only the points appended since the last frame are stroked
+     *
+     * @see #setGraphType(int)
+     * @see #setSweepGap(double)
+     */
+    public static final int SWEEP_GRAPH = 2;
+
+    /**
+     * Default number of samples the buffer can hold
+     *
+     * @see #setBufferCapacity(int)
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = 16384;
+
+    /**
+     * Default number of appended samples that can wait for the next frame
+     *
+     * @see #setQueueCapacity(int)
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+    /**
+     * Default number of visible samples per pixel column above which
+     * each column is collapsed to its first, min, max and last points
+     *
+     * @see #setDecimationThreshold(float)
+     */
+    public static final float DEFAULT_DECIMATION_THRESHOLD = 4f;
+
+    /**
+     * Frames of a data source read into the pyramid at a time, one page of the EdfReader cache
+     * A source read from a file is summarized over several frames instead of blocking one
+     *
+     * @see #setDataSource(SampleSource, boolean)
+     */
+    private static final int LOD_STEP_FRAMES = 8192;
+
+    /**
+     * Time a frame may spend summarizing a data source, in nanoseconds
+     * At most one more step is read after it runs out
+     */
+    private static final long LOD_FRAME_NANOS = 4_000_000L;
+
+    /**
+     * Default width of the erase gap ahead of the sweep cursor, in x units
+     *
+     * @see #setSweepGap(double)
+     */
+    public static final double DEFAULT_SWEEP_GAP = 0.2;
+
+    /**
+     * What appendDataPoint does when samples arrive faster than frames drain them
+     *
+     * @see #setOverflowPolicy(OverflowPolicy)
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest pending samples
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the samples being appended
+         */
+        DROP_NEWEST,
+        /**
+         * Wait on the appending thread until the next frame drains the queue
+         * Never use it from the UI thread
+         */
+        BLOCK
+    }
+
     /**
      * Style holder class
      */
@@ -73,26 +152,59 @@ public class DataSeries {
     private final Styles mStyles;
 
     /**
-     * Main view
+     * View rendering the series
      *
      * @see ECGView
+     * @see ECGSurfaceView
      */
-    private final ECGView mECGView;
+    private final GraphHost mHost;
 
     /**
-     * Array to store drawing data
+     * Ring buffer to store drawing data
      *
      * @see #setDataPoints(Point[], boolean)
      * @see #appendDataPoint(Point, boolean)
      * @see #appendDataPoint(double, double, boolean)
+     * @see #setBufferCapacity(int)
+     */
+    private final SampleBuffer mSamples;
+
+    /**
+     * Samples appended from any thread, waiting for the next frame
+     *
+     * @see #drainPending()
+     * @see #setQueueCapacity(int)
+     */
+    private SampleQueue mPending;
+
+    /**
+     * ONLY IN STATIC MODE
+     * Samples read on demand instead of the buffer, null if not set
+     *
+     * @see #setDataSource(SampleSource, boolean)
      */
-    private final ArrayList<Point> mDataPoints;
+    private SampleSource mSource;
+
+    /**
+     * Writer of the samples drained from mPending, null when not recording
+     *
+     * @see #startRecording(File, float, float)
+     */
+    private RecordingWriter mRecorder;
+
+    /**
+     * Stages applied to the samples drained from mPending, null if none
+     *
+     * @see #setFilters(SampleFilter...)
+     */
+    private SampleFilter[] mFilters;
 
     /**
      * Type of graph
      *
      * @see #STATIC_GRAPH
      * @see #DYNAMIC_GRAPH
+     * @see #SWEEP_GRAPH
      */
     private int mGraphType;
 
@@ -113,18 +225,84 @@ public class DataSeries {
     private boolean autoDelete;
 
     /**
-     * Is the invalidation already posted
+     * Samples per pixel above which the line is decimated
+     *
+     * @see #setDecimationThreshold(float)
      */
-    private boolean invalidateRequired;
+    private float decimationThreshold;
 
     /**
      * Paint of line
+     * Created once, updated in place when a style changes
      */
-    private Paint mLinePaint;
+    private final Paint mLinePaint;
+
+    /**
+     * Do the paints need to be updated from the styles
+     *
+     * @see #reloadStyles()
+     */
+    private boolean stylesDirty;
+
+    /**
+     * Decimates and strokes the line
+     */
+    private final TraceRenderer mRenderer;
+
+    /**
+     * ONLY IN DYNAMIC MODE
+     * How far the window ends before the newest point, 0 for live
+     *
+     * @see #setScrollBack(double)
+     */
+    private double scrollBack;
+
+    /**
+     * History and buffer read as one while scrolled back
+     */
+    private final JoinedSampleView mScrollBackView;
+
+    /**
+     * ONLY IN STATIC MODE
+     * Min and max summaries of the stored points, to draw a zoomed out graph
+     */
+    private final LodPyramid mLod;
+
+    /**
+     * ONLY IN SWEEP OR INCREMENTAL SCROLL MODE
+     * Offscreen line, updated around the cursor only
+     */
+    private final TraceLayer mTraceLayer;
+
+    /**
+     * ONLY IN DYNAMIC MODE
+     * Stroke only the new points to the trace layer and scroll it,
+     * instead of stroking the whole window on every frame
+     *
+     * @see #setIncrementalScroll(boolean)
+     */
+    private boolean incrementalScroll;
+
+    /**
+     * ONLY IN SWEEP MODE
+     * Width of the erase gap ahead of the cursor, in x units
+     *
+     * @see #setSweepGap(double)
+     */
+    private double sweepGap;
+
+    /**
+     * ONLY IN SWEEP OR INCREMENTAL SCROLL MODE
+     * x value of the newest point drawn to the trace layer
+     */
+    private double layerX;
 
     /**
      * Data points to draw
      * In dynamic mode, x values work as delta time
+     * Only used to pass data in, samples are stored as primitives
+     *
+     * @see SampleBuffer
      */
     public static class Point {
 
@@ -177,34 +355,47 @@ public class DataSeries {
         mStyles.lineSize = array.getDimensionPixelSize(R.styleable.ECGView_lineSize, px_0_5mm);
         array.recycle();
 
+        stylesDirty = true;
         reloadStyles();
     }
 
     /**
      * Reload Styles before drawing
+     * Only when a style changed since the last time
      */
     private void reloadStyles() {
-        mLinePaint = new Paint();
+        if (!stylesDirty)
+            return;
         mLinePaint.setColor(getLineColor());
         mLinePaint.setStrokeWidth(getLineSize());
+        mTraceLayer.invalidate();
+        stylesDirty = false;
     }
 
     /**
      * Constructor.
      * Initialize attributes
      *
-     * @param ecgView parent view
-     * @see ECGView
+     * @param host view rendering the series
+     * @see GraphHost
      */
-    DataSeries(ECGView ecgView) {
+    DataSeries(GraphHost host) {
         mStyles = new Styles();
-        mDataPoints = new ArrayList<>();
-        mECGView = ecgView;
+        mSamples = new SampleBuffer(DEFAULT_BUFFER_CAPACITY, 1);
+        mPending = new SampleQueue(DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST, this::invalidate, 1);
+        mRenderer = new TraceRenderer();
+        mTraceLayer = new TraceLayer();
+        mScrollBackView = new JoinedSampleView();
+        mLod = new LodPyramid();
+        mLinePaint = new Paint();
+        stylesDirty = true;
+        mHost = host;
 
         mGraphType = DYNAMIC_GRAPH;
+        decimationThreshold = DEFAULT_DECIMATION_THRESHOLD;
+        sweepGap = DEFAULT_SWEEP_GAP;
         autoInvalidate = true;
         autoDelete = true;
-        invalidateRequired = true;
     }
 
     /**
@@ -231,125 +422,323 @@ public class DataSeries {
     public void draw(Canvas canvas, int left, int top, int right, int bottom,
                      double graphXMin, double graphYMin, double graphXMax, double graphYMax) {
         reloadStyles();
+        drainPending();
 
-        if (mDataPoints.size() == 0)
+        if (mSource != null) {
+            drawSource(canvas, left, top, right, bottom, graphXMin, graphYMin, graphXMax, graphYMax);
             return;
+        }
 
-        float width = right - left;
-        float height = bottom - top;
-        float x_interval = (float) graphXMax - (float) graphXMin;
-        float y_interval = (float) graphYMax - (float) graphYMin;
+        int size = mSamples.size();
+        if (size == 0)
+            return;
 
-        float lastXPos = Float.NaN, lastYPos = Float.NaN, xPos, yPos;
+        final float width = right - left;
+        final float height = bottom - top;
+        final double x_interval = graphXMax - graphXMin;
+        final double y_interval = graphYMax - graphYMin;
 
-        float x_value = 0, y_value = 0;
+        // Find the visible range [first, last] and the x value at the left edge
+        int first, last;
+        double xStart;
+        if (mGraphType != STATIC_GRAPH) {
+            // The newest point is at the right edge
+            xStart = mSamples.getX(size - 1) - x_interval;
+            // Newest point at or left of the graph so the line enters from the edge
+            first = mSamples.floorIndex(xStart);
+            if (first > 0 && autoDelete) {
+                mSamples.removeFirst(first);
+                size -= first;
+                first = 0;
+            } else if (first < 0 && autoDelete && mSamples.isFull()) {
+                // The window is wider than the buffer, grow it instead of evicting visible points
+                Log.d(TAG, "Buffer capacity " + mSamples.capacity() + " too small for the window, growing");
+                mSamples.setCapacity(mSamples.capacity() * 2);
+            }
+            first = Math.max(0, first);
+            last = size - 1;
+            if (mGraphType == DYNAMIC_GRAPH && scrollBack > 0) {
+                drawScrollBack(canvas, left, top, right, bottom, graphYMin, graphYMax, x_interval);
+                return;
+            }
+            if (mGraphType == SWEEP_GRAPH || incrementalScroll) {
+                drawTraceLayer(canvas, left, top, right, bottom, graphYMin, graphYMax, x_interval);
+                return;
+            }
+        } else {
+            xStart = graphXMin;
+            first = Math.max(0, mSamples.floorIndex(graphXMin));
+            last = Math.min(size - 1, mSamples.floorIndex(graphXMax) + 1);
+        }
 
-        if (mGraphType == DYNAMIC_GRAPH) {
-            graphXMin = -1 * x_interval;
+        final double xScale = width / x_interval;
+        final double yScale = height / y_interval;
+        final double xOffset = left - xStart * xScale;
+        final double yOffset = bottom + graphYMin * yScale;
+        final int count = last - first + 1;
+        if (mGraphType == STATIC_GRAPH && count > width * decimationThreshold) {
+            // At least two buckets per pixel column, so decimating them keeps the shape
+            final int level = mLod.levelFor(count / width / 2);
+            if (level >= 0) {
+                strokeLod(canvas, mSamples, level, first, last, xOffset, xScale, yOffset, yScale, y_interval,
+                        left, top, right, bottom);
+                return;
+            }
         }
+        strokeChannels(canvas, mSamples, first, count, xOffset, xScale, yOffset, yScale, y_interval,
+                left, top, right, bottom, 0);
+    }
 
-        for (int i=0; i < mDataPoints.size(); i++) {
-            Point p;
-            if (mGraphType == DYNAMIC_GRAPH)
-                p = mDataPoints.get(mDataPoints.size() - 1 - i);
-            else
-                p = mDataPoints.get(i);
+    /**
+     * Stroke the min and max of each bucket of a level of the pyramid instead of the samples
+     * Each bucket is a segment from its min at its first x to its max at its last x,
+     * then every pixel column is decimated as usual
+     *
+     * @param samples summarized samples
+     * @param level pyramid level
+     * @param first index of the first visible sample
+     * @param last index of the last visible sample
+     * @see #strokeChannels(Canvas, SampleView, int, int, double, double, double, double, double, float, float, float, float, float)
+     */
+    private void strokeLod(Canvas canvas, SampleView samples, int level, int first, int last,
+                           double xOffset, double xScale, double yOffset, double yScale, double y_interval,
+                           float left, float top, float right, float bottom) {
+        final int shift = LodPyramid.shift(level);
+        final int from = first >> shift;
+        final int to = last >> shift;
+        final int count = (to - from + 1) * 2;
+        // The last bucket ends at the last summarized sample
+        final int size = mLod.size();
+        final int channels = samples.channels();
+        final double band = y_interval / channels * yScale;
+        for (int c = 0; c < channels; c++) {
+            final double channelOffset = yOffset - ((channels - 1) / 2.0 - c) * band;
+            final float[] points = mRenderer.points(count);
+            for (int b = from, j = 0; b <= to; b++, j += 4) {
+                points[j] = (float) (xOffset + samples.getX(b << shift) * xScale);
+                points[j + 1] = (float) (channelOffset - mLod.min(level, c, b) * yScale);
+                points[j + 2] = (float) (xOffset + samples.getX(Math.min(size, (b + 1) << shift) - 1) * xScale);
+                points[j + 3] = (float) (channelOffset - mLod.max(level, c, b) * yScale);
+            }
+            mRenderer.draw(canvas, mLinePaint, left, top, right, bottom, count, true);
+        }
+    }
 
-            y_value = (float) p.y;
-            if (mGraphType == DYNAMIC_GRAPH) {
-                if (i != 0)
-                    x_value -= (float) mDataPoints.get(mDataPoints.size() - i).x;
-            } else {
-                x_value = (float) p.x;
+    /**
+     * Draw the visible samples of the data source
+     * Only the samples within the graph bounds are read, zoomed out they are drawn from the pyramid
+     * A source read from a file is summarized for a few milliseconds per frame,
+     * zoomed out only the summarized samples are drawn until then
+     *
+     * @see #setDataSource(SampleSource, boolean)
+     */
+    private void drawSource(Canvas canvas, int left, int top, int right, int bottom,
+                            double graphXMin, double graphYMin, double graphXMax, double graphYMax) {
+        if (mLod.size() < mSource.size()) {
+            final long deadline = System.nanoTime() + LOD_FRAME_NANOS;
+            boolean summarized;
+            do {
+                summarized = mLod.update(mSource, LOD_STEP_FRAMES);
+            } while (!summarized && System.nanoTime() < deadline);
+            if (!summarized) {
+                // Keep summarizing on the next frames
+                mHost.requestFrame();
             }
+        }
+        final int first = Math.max(0, mSource.floorIndex(graphXMin));
+        final int last = Math.min(mSource.size() - 1, mSource.floorIndex(graphXMax) + 1);
+        if (last <= first)
+            return;
 
-            // Calculate the position of current point
-            xPos = left + ((x_value - (float) graphXMin) / x_interval) * width;
-            yPos = bottom - ((y_value - (float) graphYMin) / y_interval) * height;
-
-            boolean draw = true;
-
-            if (i != 0) {
-                float x = xPos;
-                float y = yPos;
-
-                // Check if this point is out of bounds
-                if (xPos < left) {
-                    if (lastXPos < left) {
-                        draw = false;
-                        if (mGraphType == DYNAMIC_GRAPH && autoDelete) {
-//                            Log.d(TAG, mDataPoints.size() - i + " Points deleted");
-                            mDataPoints.subList(0, mDataPoints.size() - i + 1).clear();
-                            break;
-                        }
-                    } else {
-                        float b = (left - xPos) / (lastXPos - xPos) * (lastYPos - yPos);
-                        x = left;
-                        y = lastYPos + b;
-                    }
-                } else if (xPos > right) {
-                    if (lastXPos > right) {
-                        draw = false;
-                    } else {
-                        float b = (right - lastXPos) / (xPos - lastXPos) * (yPos - lastYPos);
-                        x = right;
-                        y = lastYPos + b;
-                    }
-                }
+        final float width = right - left;
+        final double xScale = width / (graphXMax - graphXMin);
+        final double yScale = (bottom - top) / (graphYMax - graphYMin);
+        final double xOffset = left - graphXMin * xScale;
+        final double yOffset = bottom + graphYMin * yScale;
+        final int count = last - first + 1;
+        int step = 1;
+        if (count > width * decimationThreshold) {
+            final int level = mLod.levelFor(count / width / 2);
+            if (level >= 0) {
+                // Samples not summarized yet are drawn once they are, reading them one
+                // by one would load a page of the file for each
+                if (first < mLod.size() - 1)
+                    strokeLod(canvas, mSource, level, first, Math.min(last, mLod.size() - 1), xOffset, xScale,
+                            yOffset, yScale, graphYMax - graphYMin, left, top, right, bottom);
+                return;
+            }
+            // Too few samples per column for the pyramid, a frame must still not read them all
+            step = (int) Math.ceil(count / (width * decimationThreshold));
+        }
+        strokeChannels(canvas, mSource, first, count, step, xOffset, xScale, yOffset, yScale,
+                graphYMax - graphYMin, left, top, right, bottom, 0);
+    }
 
-                if (y < top) {
-                    if (lastYPos < top) {
-                        draw = false;
-                    } else {
-                        float b = (top - lastYPos) / (y - lastYPos) * (x - lastXPos);
-                        y = top;
-                        x = lastXPos + b;
-                    }
-                } else if (y > bottom) {
-                    if (lastYPos > bottom) {
-                        draw = false;
-                    } else {
-                        float b = (bottom - lastYPos) / (y - lastYPos) * (x - lastXPos);
-                        y = bottom;
-                        x = lastXPos + b;
-                    }
-                }
+    /**
+     * Draw the dynamic graph scrolled back
+     * Points older than the buffer are read from the history file in place
+     *
+     * @see #setScrollBack(double)
+     */
+    private void drawScrollBack(Canvas canvas, int left, int top, int right, int bottom,
+                                double graphYMin, double graphYMax, double x_interval) {
+        final HistoryFile history = mSamples.getHistory();
+        final SampleView samples = history == null ? mSamples : mScrollBackView.join(history, mSamples);
+        final double xEnd = mSamples.getX(mSamples.size() - 1) - scrollBack;
+        final double xStart = xEnd - x_interval;
+        final int first = Math.max(0, samples.floorIndex(xStart));
+        final int last = Math.min(samples.size() - 1, samples.floorIndex(xEnd) + 1);
+        if (last <= first)
+            return;
 
-                if (draw) {
-                    // Check if the previous point if out of bounds
-                    if (lastXPos < left) {
-                        float b = (left - lastXPos) / (x - lastXPos) * (y - lastYPos);
-                        lastXPos = left;
-                        lastYPos = lastYPos + b;
-                    }
-
-                    if (lastYPos < top) {
-                        float b = (top - lastYPos) / (y - lastYPos) * (x - lastXPos);
-                        lastYPos = top;
-                        lastXPos = lastXPos + b;
-                    } else if (y > bottom) {
-                        float b = (bottom - lastYPos) / (y - lastYPos) * (x - lastXPos);
-                        lastYPos = bottom;
-                        lastXPos = lastXPos + b;
-                    }
-                    canvas.drawLine(lastXPos, lastYPos, x, y, mLinePaint);
+        final double xScale = (right - left) / x_interval;
+        final double yScale = (bottom - top) / (graphYMax - graphYMin);
+        strokeChannels(canvas, samples, first, last - first + 1, left - xStart * xScale, xScale,
+                bottom + graphYMin * yScale, yScale, graphYMax - graphYMin, left, top, right, bottom, 0);
+    }
+
+    /**
+     * Transform the samples of every channel into the point buffer in one tight loop and stroke them
+     * Channels are stacked in bands of equal height, channel 0 on top,
+     * every band keeps the scale of the grid
+     *
+     * @param samples samples to read
+     * @param first index of the first sample
+     * @param count number of samples
+     * @param xOffset pixel x of x value 0
+     * @param yOffset pixel y of y value 0, for a single channel
+     * @param y_interval y value across the height
+     * @param wrap width the x values wrap around, 0 for no wrapping
+     * @see TraceRenderer#draw(Canvas, Paint, float, float, float, float, int, boolean, float)
+     */
+    private void strokeChannels(Canvas canvas, SampleView samples, int first, int count,
+                                double xOffset, double xScale, double yOffset, double yScale, double y_interval,
+                                float left, float top, float right, float bottom, float wrap) {
+        strokeChannels(canvas, samples, first, count, 1, xOffset, xScale, yOffset, yScale, y_interval,
+                left, top, right, bottom, wrap);
+    }
+
+    /**
+     * Stroke every step-th sample and the last one
+     * Decimated points are streamed through the point buffer in chunks, so it follows the width
+     *
+     * @param step samples skipped between two read, 1 to read them all
+     * @see TraceRenderer#decimateAppended(int, int)
+     */
+    private void strokeChannels(Canvas canvas, SampleView samples, int first, int count, int step,
+                                double xOffset, double xScale, double yOffset, double yScale, double y_interval,
+                                float left, float top, float right, float bottom, float wrap) {
+        final int channels = samples.channels();
+        final double band = y_interval / channels * yScale;
+        final int read = (count - 1) / step + ((count - 1) % step == 0 ? 1 : 2);
+        final boolean decimate = read > (right - left) * decimationThreshold;
+        for (int c = 0; c < channels; c++) {
+            final double channelOffset = yOffset - ((channels - 1) / 2.0 - c) * band;
+            int kept = 0;
+            for (int k = 0; k < read; ) {
+                final int n = decimate ? Math.min(read - k, TraceRenderer.CHUNK) : read;
+                final float[] points = mRenderer.points(kept + n);
+                for (int end = k + n, j = 2 * kept; k < end; k++, j += 2) {
+                    final int i = first + (int) Math.min((long) k * step, count - 1);
+                    points[j] = (float) (xOffset + samples.getX(i) * xScale);
+                    points[j + 1] = (float) (channelOffset - samples.getY(c, i) * yScale);
                 }
+                kept = decimate ? mRenderer.decimateAppended(kept, n) : kept + n;
             }
+            mRenderer.draw(canvas, mLinePaint, left, top, right, bottom, kept, false, wrap);
+        }
+    }
 
-            lastXPos = xPos;
-            lastYPos = yPos;
+    /**
+     * Draw the sweep graph, or the dynamic graph with incremental scroll
+     * Only the new points are stroked to the trace layer,
+     * after erasing the strip from the last cursor to the gap ahead of the new one
+     * Everything is redrawn when the size, the bounds or a style changed
+     *
+     * When scrolling, the layer is drawn rotated so the cursor is at the right edge
+     *
+     * @see #draw(Canvas, int, int, int, int, double, double, double, double)
+     */
+    private void drawTraceLayer(Canvas canvas, int left, int top, int right, int bottom,
+                                double graphYMin, double graphYMax, double x_interval) {
+        final int width = right - left;
+        final int height = bottom - top;
+        final int size = mSamples.size();
+        final double newest = mSamples.getX(size - 1);
+        final double xScale = width / x_interval;
+        final double yScale = height / (graphYMax - graphYMin);
+        final boolean sweep = mGraphType == SWEEP_GRAPH;
+        // When scrolling, the gap only keeps the newest stroke from showing at the left edge
+        final double gap = sweep ? sweepGap : (getLineSize() + 1) / xScale;
+
+        final int first;
+        final Canvas layer;
+        if (!mTraceLayer.isValid(width, height, x_interval, graphYMin, graphYMax)
+                || newest < layerX || newest - layerX >= x_interval - gap) {
+            // Everything but the gap ahead of the cursor
+            layer = mTraceLayer.reset(width, height, x_interval, graphYMin, graphYMax);
+            first = Math.max(0, mSamples.floorIndex(newest - x_interval + gap));
+        } else {
+            layer = mTraceLayer.getCanvas();
+            first = Math.max(0, mSamples.floorIndex(layerX));
+            final float cursor = (float) (wrap(layerX, x_interval) * xScale);
+            mTraceLayer.erase(cursor, (float) (cursor + (newest - layerX + gap) * xScale));
+        }
+        layerX = newest;
+
+        // Columns wrap around, start the points in the first sweep
+        final int count = size - first;
+        if (count > 1) {
+            final double base = mSamples.getX(first) - wrap(mSamples.getX(first), x_interval);
+            final double xOffset = -base * xScale;
+            final double yOffset = height + graphYMin * yScale;
+            strokeChannels(layer, mSamples, first, count, xOffset, xScale, yOffset, yScale, graphYMax - graphYMin,
+                    0, 0, width, height, width);
         }
-    invalidateRequired = false;
+        if (sweep)
+            mTraceLayer.draw(canvas, left, top);
+        else
+            mTraceLayer.drawRotated(canvas, left, top, (float) (wrap(newest, x_interval) * xScale));
+    }
+
+    /**
+     * Position of an x value within its sweep
+     *
+     * @param x x value
+     * @param x_interval x value across the graph
+     * @return x value in [0, x_interval)
+     */
+    private static double wrap(double x, double x_interval) {
+        return x - Math.floor(x / x_interval) * x_interval;
+    }
+
+    /**
+     * Free the trace layer, it is drawn again on the next frame
+     */
+    void releaseLayer() {
+        mTraceLayer.release();
+    }
+
+    /**
+     * Move the samples appended since the last frame into the buffer
+     * Must be called on the UI thread, before the bounds are read
+     *
+     * @see ECGView#onDraw(Canvas)
+     */
+    void drainPending() {
+        final int n = mPending.pending();
+        if (n == 0)
+            return;
+        reserve(n);
+        mPending.drainTo(mSamples, mRecorder, mFilters);
     }
 
     /**
-     * Call the main view to invalidate
+     * Request a frame from the host view
+     * Requests from the appending thread are coalesced by the frame scheduler
      */
     private void invalidate() {
-        if (!invalidateRequired) {
-            invalidateRequired = true;
-            mECGView.postInvalidate();
-        }
+        mHost.requestFrame();
     }
 
     /**
@@ -358,20 +747,236 @@ public class DataSeries {
      * @param graphType graph type
      * @see DataSeries#DYNAMIC_GRAPH
      * @see DataSeries#STATIC_GRAPH
+     * @see DataSeries#SWEEP_GRAPH
      */
     public void setGraphType(int graphType) {
-        if (graphType != STATIC_GRAPH && graphType != DYNAMIC_GRAPH) {
+        if (graphType != STATIC_GRAPH && graphType != DYNAMIC_GRAPH && graphType != SWEEP_GRAPH) {
             Log.e(TAG, "Illegal argument");
         }
         mGraphType = graphType;
-        mDataPoints.clear();
+        clear();
     }
 
     /**
      * Clear data points
+     * Points appended but not drawn yet are discarded too
      */
     public void clear() {
-        mDataPoints.clear();
+        mPending.clear();
+        mSamples.clear();
+        mSource = null;
+        mLod.clear();
+        resetFilters(mSamples.channels());
+        mTraceLayer.invalidate();
+        mHost.dataReplaced();
+    }
+
+    /**
+     * Set the width of the erase gap ahead of the sweep cursor
+     *
+     * @param gap gap width in x units, less than the graph x interval
+     * @see #SWEEP_GRAPH
+     * @see #DEFAULT_SWEEP_GAP
+     */
+    public void setSweepGap(double gap) {
+        if (gap < 0) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        sweepGap = gap;
+        mTraceLayer.invalidate();
+        if (autoInvalidate)
+            invalidate();
+    }
+
+    public double getSweepGap() { return sweepGap; }
+
+    /**
+     * Scroll the dynamic graph incrementally
+     * The line is kept offscreen, each frame only strokes the points appended since the last one,
+     * so the cost follows the data rate instead of the window length
+     * Everything is redrawn when the size, the bounds or a style changes
+     *
+     * @param b enable or not
+     * @see #DYNAMIC_GRAPH
+     */
+    public void setIncrementalScroll(boolean b) {
+        incrementalScroll = b;
+        mTraceLayer.invalidate();
+        if (autoInvalidate)
+            invalidate();
+    }
+
+    public boolean isIncrementalScroll() { return incrementalScroll; }
+
+    /**
+     * Set the number of appended samples that can wait for the next frame
+     * Pending samples are discarded, call it before streaming starts
+     *
+     * @param capacity number of samples, rounded up to a power of two
+     * @see #DEFAULT_QUEUE_CAPACITY
+     */
+    public void setQueueCapacity(int capacity) {
+        if (capacity <= 0) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        mPending = new SampleQueue(capacity, mPending.getPolicy(), this::invalidate, mPending.channels());
+    }
+
+    /**
+     * Set the number of channels, e.g. 12 for a 12-lead ECG
+     * Channels share the x values and the graph, each is drawn in its own band
+     * Data points are discarded, call it before streaming starts
+     *
+     * @param channels number of channels
+     * @see #appendFrames(float[], int, int, double, boolean)
+     */
+    public void setChannelCount(int channels) {
+        if (channels <= 0) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        mPending = new SampleQueue(mPending.capacity(), mPending.getPolicy(), this::invalidate, channels);
+        // Recordings have one count per channel
+        stopRecording();
+        resetFilters(channels);
+        final HistoryFile history = mSamples.getHistory();
+        mSamples.setChannels(channels);
+        mLod.clear();
+        if (history != null && history.channels() != channels) {
+            // Records have one value per channel, start a new history
+            disableHistory();
+            enableHistory(history.getFile(), history.capacity());
+        }
+        mTraceLayer.invalidate();
+        if (autoInvalidate)
+            invalidate();
+    }
+
+    public int getChannelCount() {
+        return mSamples.channels();
+    }
+
+    /**
+     * Store y values as 16-bit counts instead of floats, halving the memory of each lane
+     * y = baseline + count * gain, values are rounded to the nearest count
+     * and clamped to [-32768, 32767] counts, e.g. gain 0.005 mV covers +-163 mV
+     * Data points are cleared
+     *
+     * @param gain y units per count, e.g. mV per LSB, 0 to store floats
+     * @param baseline y value of count 0
+     */
+    public void setQuantization(float gain, float baseline) {
+        if (gain < 0 || Float.isNaN(gain) || Float.isInfinite(baseline)) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        mSamples.setQuantization(gain, baseline);
+        clear();
+        if (autoInvalidate)
+            invalidate();
+    }
+
+    /**
+     * Sample at a fixed rate, x values are computed from the sample index instead of being stored
+     * Sample i after a clear is at (i + 1) / hz, the delta times given to append are ignored,
+     * the x values given to set data points only place the first point
+     * Data points are cleared
+     *
+     * @param hz sample rate, 0 to store the x value of every point
+     * @see #appendFrames(float[], int, int, boolean)
+     */
+    public void setSampleRate(double hz) {
+        if (!(hz >= 0) || Double.isInfinite(hz)) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        mSamples.setSampleInterval(hz > 0 ? 1 / hz : 0);
+        clear();
+        if (autoInvalidate)
+            invalidate();
+    }
+
+    /**
+     * @return sample rate, 0 if x values are stored
+     */
+    public double getSampleRate() {
+        final double interval = mSamples.getSampleInterval();
+        return interval > 0 ? 1 / interval : 0;
+    }
+
+    /**
+     * Delta time of an appended point, the sample interval if the rate is fixed
+     */
+    private double interval(double d_time) {
+        final double interval = mSamples.getSampleInterval();
+        return interval > 0 ? interval : d_time;
+    }
+
+    public boolean isQuantized() {
+        return mSamples.isQuantized();
+    }
+
+    public float getQuantizationGain() {
+        return mSamples.getGain();
+    }
+
+    public float getQuantizationBaseline() {
+        return mSamples.getBaseline();
+    }
+
+    /**
+     * Set what happens when samples are appended faster than they are drawn
+     *
+     * @param policy overflow policy
+     * @see OverflowPolicy
+     */
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        mPending.setPolicy(policy);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return mPending.getPolicy();
+    }
+
+    /**
+     * Get the number of appended samples dropped by the overflow policy
+     *
+     * @see #setOverflowPolicy(OverflowPolicy)
+     */
+    public long getDroppedSampleCount() {
+        return mPending.getDropped();
+    }
+
+    /**
+     * Set the number of samples the dynamic graph keeps
+     * When the buffer is full the oldest point is dropped on append,
+     * unless auto delete is off, in which case the buffer grows
+     *
+     * @param capacity number of samples
+     * @see #DEFAULT_BUFFER_CAPACITY
+     * @see #setAutoDeleteOutBoundsPoints(boolean)
+     */
+    public void setBufferCapacity(int capacity) {
+        if (capacity <= 0) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        mSamples.setCapacity(capacity);
+        // Shrinking drops the oldest points, summaries are indexed from the first one
+        mLod.clear();
+        if (mGraphType == STATIC_GRAPH)
+            mLod.update(mSamples);
+    }
+
+    /**
+     * Get the number of samples the buffer can hold
+     *
+     * @see #setBufferCapacity(int)
+     */
+    public int getBufferCapacity() {
+        return mSamples.capacity();
     }
 
     /**
@@ -379,6 +984,7 @@ public class DataSeries {
      *
      * @see #DYNAMIC_GRAPH
      * @see #STATIC_GRAPH
+     * @see #SWEEP_GRAPH
      */
     public int getGraphType() {
         return mGraphType;
@@ -386,6 +992,7 @@ public class DataSeries {
 
     /**
      * Set the points of the static graph
+     * Points must be sorted by x
      *
      * @param points data points
      * @param invalidate invalidate or not
@@ -396,14 +1003,95 @@ public class DataSeries {
             Log.e(TAG, "Set graph to static first to set data points");
             return;
         }
-        mDataPoints.clear();
-        mDataPoints.addAll(Arrays.asList(points));
+        if (mSamples.channels() != 1) {
+            Log.e(TAG, "Set data points of a single channel series only");
+            return;
+        }
+        clear();
+        if (points.length > mSamples.capacity())
+            mSamples.setCapacity(points.length);
+        for (Point p: points)
+            mSamples.add(p.x, (float) p.y);
+        mLod.update(mSamples);
+        if (autoInvalidate || invalidate)
+            invalidate();
+    }
+
+    /**
+     * Set the frames of the static graph, without any per point object
+     * Frames are interleaved, channel c of frame f is at offset + f * channels + c
+     *
+     * @param x x values, sorted
+     * @param frames y values
+     * @param offset index of the first y value
+     * @param count number of frames
+     * @param invalidate invalidate or not
+     * @see #setChannelCount(int)
+     */
+    public void setDataFrames(double[] x, float[] frames, int offset, int count, boolean invalidate) {
+        if (mGraphType != STATIC_GRAPH) {
+            Log.e(TAG, "Set graph to static first to set data points");
+            return;
+        }
+        if (count < 0 || x.length < count || frames.length < offset + count * mSamples.channels()) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        clear();
+        addStaticFrames(x, 0, frames, offset, count, invalidate);
+    }
+
+    /**
+     * Draw the static graph from a source read on demand, e.g. a record larger than the heap
+     * Only the samples within the graph bounds are read on each frame,
+     * the points stored in the series are cleared
+     *
+     * Sources are summarized for zooming out, set them again after changing the values.
+     * Sources wrapping storage in memory are summarized at once, others for a few milliseconds per frame
+     *
+     * @param source samples, null to go back to the stored points
+     * @param invalidate invalidate or not
+     * @see EdfReader#getSource(int...)
+     * @see SampleSource#wrap(float[], int, double, double)
+     */
+    public void setDataSource(SampleSource source, boolean invalidate) {
+        if (mGraphType != STATIC_GRAPH) {
+            Log.e(TAG, "Set graph to static first to set a data source");
+            return;
+        }
+        clear();
+        mSource = source;
+        if (source instanceof WrappedSource) {
+            // Already in memory, a file would block the UI thread, see drawSource
+            ((WrappedSource) source).refresh();
+            mLod.update(source);
+        }
+        if (autoInvalidate || invalidate)
+            invalidate();
+    }
+
+    public SampleSource getDataSource() { return mSource; }
+
+    /**
+     * Add frames after the points of the static graph, the buffer grows to hold them
+     * Used to load records chunk by chunk
+     *
+     * @see #setDataFrames(double[], float[], int, int, boolean)
+     */
+    void addStaticFrames(double[] x, int xOffset, float[] frames, int offset, int count, boolean invalidate) {
+        final int size = mSamples.size();
+        if (size + count > mSamples.capacity())
+            mSamples.setCapacity(Math.max(mSamples.capacity() * 2, size + count));
+        mSamples.addFrames(x, xOffset, frames, offset, count);
+        mLod.update(mSamples);
         if (autoInvalidate || invalidate)
             invalidate();
     }
 
     /**
      * Append a new point to the dynamic graph
+     * Safe to call from a single acquisition thread,
+     * the point is drawn on the next frame
      *
      * @param point point to append
      * @param invalidate invalidate or not
@@ -411,17 +1099,23 @@ public class DataSeries {
      * @see #appendDataPoint(double, double, boolean)
      */
     public void appendDataPoint(Point point, boolean invalidate) {
-        if (mGraphType != DYNAMIC_GRAPH) {
+        if (mGraphType == STATIC_GRAPH) {
             Log.e(TAG, "Set graph to dynamic first to append a data point data");
             return;
         }
-        mDataPoints.add(point);
+        if (mSamples.channels() != 1) {
+            Log.e(TAG, "Append frames to a multi-channel series");
+            return;
+        }
+        mPending.offer(interval(point.x), (float) point.y);
         if (autoInvalidate || invalidate)
                 invalidate();
     }
 
     /**
      * Append a new point to the dynamic graph
+     * Safe to call from a single acquisition thread,
+     * the point is drawn on the next frame
      *
      * @param y_value y value
      * @param d_time delta time from last point
@@ -430,20 +1124,358 @@ public class DataSeries {
      * @see #appendDataPoint(Point, boolean)
      */
     public void appendDataPoint(double y_value, double d_time, boolean invalidate) {
-        if (mGraphType != DYNAMIC_GRAPH) {
+        if (mGraphType == STATIC_GRAPH) {
             Log.e(TAG, "Set graph to dynamic first to append a data point data");
             return;
         }
-        Point p = new Point(d_time, y_value);
-        mDataPoints.add(p);
+        if (mSamples.channels() != 1) {
+            Log.e(TAG, "Append frames to a multi-channel series");
+            return;
+        }
+        mPending.offer(interval(d_time), (float) y_value);
         if (autoInvalidate || invalidate)
             invalidate();
     }
 
+    /**
+     * Append a batch of points sampled at a fixed interval
+     * Values are copied in one pass and invalidate at most once
+     * Safe to call from a single acquisition thread
+     *
+     * @param values y values
+     * @param offset index of the first value
+     * @param length number of values
+     * @param d_time delta time between two points
+     * @param invalidate invalidate or not
+     * @see #appendDataPoint(double, double, boolean)
+     */
+    public void appendDataPoints(float[] values, int offset, int length, double d_time, boolean invalidate) {
+        if (values == null || offset < 0 || length < 0 || length > values.length - offset) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        if (mGraphType == STATIC_GRAPH) {
+            Log.e(TAG, "Set graph to dynamic first to append data points");
+            return;
+        }
+        if (mSamples.channels() != 1) {
+            Log.e(TAG, "Append frames to a multi-channel series");
+            return;
+        }
+        mPending.offer(values, offset, length, interval(d_time));
+        if (autoInvalidate || invalidate)
+            invalidate();
+    }
+
+    /**
+     * Append a batch of points sampled at a fixed interval
+     * Values are copied in one pass and invalidate at most once
+     * Safe to call from a single acquisition thread
+     *
+     * @param values y values
+     * @param offset index of the first value
+     * @param length number of values
+     * @param d_time delta time between two points
+     * @param invalidate invalidate or not
+     * @see #appendDataPoints(float[], int, int, double, boolean)
+     */
+    public void appendDataPoints(double[] values, int offset, int length, double d_time, boolean invalidate) {
+        if (values == null || offset < 0 || length < 0 || length > values.length - offset) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        if (mGraphType == STATIC_GRAPH) {
+            Log.e(TAG, "Set graph to dynamic first to append data points");
+            return;
+        }
+        if (mSamples.channels() != 1) {
+            Log.e(TAG, "Append frames to a multi-channel series");
+            return;
+        }
+        mPending.offer(values, offset, length, interval(d_time));
+        if (autoInvalidate || invalidate)
+            invalidate();
+    }
+
+    /**
+     * Append the remaining values of a buffer sampled at a fixed interval
+     * The buffer position is advanced to its limit
+     *
+     * @param values y values
+     * @param d_time delta time between two points
+     * @param invalidate invalidate or not
+     * @see #appendDataPoints(float[], int, int, double, boolean)
+     */
+    public void appendDataPoints(FloatBuffer values, double d_time, boolean invalidate) {
+        if (values == null) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        if (mGraphType == STATIC_GRAPH) {
+            Log.e(TAG, "Set graph to dynamic first to append data points");
+            return;
+        }
+        if (mSamples.channels() != 1) {
+            Log.e(TAG, "Append frames to a multi-channel series");
+            return;
+        }
+        mPending.offer(values, interval(d_time));
+        if (autoInvalidate || invalidate)
+            invalidate();
+    }
+
+    /**
+     * Append the remaining values of a buffer sampled at a fixed interval
+     * The buffer position is advanced to its limit
+     *
+     * @param values y values
+     * @param d_time delta time between two points
+     * @param invalidate invalidate or not
+     * @see #appendDataPoints(double[], int, int, double, boolean)
+     */
+    public void appendDataPoints(DoubleBuffer values, double d_time, boolean invalidate) {
+        if (values == null) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        if (mGraphType == STATIC_GRAPH) {
+            Log.e(TAG, "Set graph to dynamic first to append data points");
+            return;
+        }
+        if (mSamples.channels() != 1) {
+            Log.e(TAG, "Append frames to a multi-channel series");
+            return;
+        }
+        mPending.offer(values, interval(d_time));
+        if (autoInvalidate || invalidate)
+            invalidate();
+    }
+
+    /**
+     * Append one sample of every channel
+     * Safe to call from a single acquisition thread
+     *
+     * @param frame y values, one per channel
+     * @param d_time delta time from last frame
+     * @param invalidate invalidate or not
+     * @see #setChannelCount(int)
+     */
+    public void appendFrame(float[] frame, double d_time, boolean invalidate) {
+        appendFrames(frame, 0, 1, d_time, invalidate);
+    }
+
+    /**
+     * Append a batch of frames sampled at a fixed interval
+     * Frames are interleaved, channel c of frame f is at offset + f * channels + c
+     * Values are copied in one pass and invalidate at most once
+     * Safe to call from a single acquisition thread
+     *
+     * @param frames y values
+     * @param offset index of the first value
+     * @param count number of frames
+     * @param d_time delta time between two frames
+     * @param invalidate invalidate or not
+     * @see #setChannelCount(int)
+     */
+    public void appendFrames(float[] frames, int offset, int count, double d_time, boolean invalidate) {
+        if (mGraphType == STATIC_GRAPH) {
+            Log.e(TAG, "Set graph to dynamic first to append data points");
+            return;
+        }
+        if (offset < 0 || count < 0 || offset + count * mPending.channels() > frames.length) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        mPending.offerFrames(frames, offset, count, interval(d_time));
+        if (autoInvalidate || invalidate)
+            invalidate();
+    }
+
+    /**
+     * Append a batch of frames at the sample rate
+     *
+     * @see #setSampleRate(double)
+     * @see #appendFrames(float[], int, int, double, boolean)
+     */
+    public void appendFrames(float[] frames, int offset, int count, boolean invalidate) {
+        if (mSamples.getSampleInterval() <= 0) {
+            Log.e(TAG, "Set a sample rate first to append frames without delta time");
+            return;
+        }
+        appendFrames(frames, offset, count, 0, invalidate);
+    }
+
+    /**
+     * Keep the points that leave the buffer in a memory-mapped file,
+     * so the dynamic graph can be scrolled back through hours of data
+     * with a bounded Java heap. The file is overwritten
+     *
+     * @param file history file, e.g. in the cache directory
+     * @param maxSamples number of points kept, the oldest are overwritten
+     * @return false if the file could not be mapped
+     * @see #setScrollBack(double)
+     */
+    public boolean enableHistory(File file, int maxSamples) {
+        if (file == null || maxSamples <= 0) {
+            Log.e(TAG, "Illegal argument");
+            return false;
+        }
+        disableHistory();
+        try {
+            mSamples.setHistory(new HistoryFile(file, maxSamples, mSamples.channels()));
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot map the history file: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop keeping points in the history file, the file is deleted
+     */
+    public void disableHistory() {
+        final HistoryFile history = mSamples.getHistory();
+        if (history == null)
+            return;
+        mSamples.setHistory(null);
+        history.delete();
+    }
+
+    /**
+     * Record the appended points to a compact binary file, as they are drained
+     * Values are stored as int16 counts, value = offset + count * gain,
+     * so the gain should be the resolution of the source, e.g. the ADC step
+     * Drained points are only copied, they are encoded and written on a background thread.
+     * The file is overwritten, and closed when the view is detached
+     *
+     * @param file recording file
+     * @param gain value of one count
+     * @param offset value of count 0
+     * @return false if the file could not be created
+     * @see RecordingReader
+     * @see #stopRecording()
+     */
+    public boolean startRecording(File file, float gain, float offset) {
+        if (file == null || !(gain > 0)) {
+            Log.e(TAG, "Illegal argument");
+            return false;
+        }
+        stopRecording();
+        drainPending();
+        try {
+            mRecorder = new RecordingWriter(file, mSamples.channels(), gain, offset);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot create the recording: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Record the points drained so far and close the recording file
+     * The file is closed once written, on the background thread
+     *
+     * @see #startRecording(File, float, float)
+     */
+    public void stopRecording() {
+        if (mRecorder == null)
+            return;
+        drainPending();
+        mRecorder.close();
+        mRecorder = null;
+    }
+
+    public boolean isRecording() { return mRecorder != null; }
+
+    /**
+     * Filter the appended points before they are stored, e.g. baseline wander removal,
+     * mains notch and low-pass, one stage after the other
+     * Points are filtered in place on the drawing thread once per frame, without allocation,
+     * recordings keep the unfiltered points. Static data is not filtered
+     *
+     * @param filters stages in order, none to stop filtering
+     * @see BiquadFilter
+     * @see FirFilter
+     * @see MedianBaseline
+     */
+    public void setFilters(SampleFilter... filters) {
+        if (filters != null) {
+            for (SampleFilter filter : filters) {
+                if (filter == null) {
+                    Log.e(TAG, "Illegal argument");
+                    return;
+                }
+            }
+        }
+        // Points appended before are stored as they were
+        drainPending();
+        mFilters = filters == null || filters.length == 0 ? null : filters.clone();
+        resetFilters(mSamples.channels());
+    }
+
+    public SampleFilter[] getFilters() {
+        return mFilters == null ? new SampleFilter[0] : mFilters.clone();
+    }
+
+    /**
+     * Restart every stage from an empty state
+     */
+    private void resetFilters(int channels) {
+        if (mFilters == null)
+            return;
+        for (SampleFilter filter : mFilters)
+            filter.reset(channels);
+    }
+
+    /**
+     * Move the window of the dynamic graph back in time
+     * Points older than the buffer are read from the history
+     *
+     * @param offset how far the window ends before the newest point, 0 for live
+     * @see #enableHistory(File, int)
+     * @see #getHistoryXMin()
+     */
+    public void setScrollBack(double offset) {
+        if (offset < 0) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        scrollBack = offset;
+        if (autoInvalidate)
+            invalidate();
+    }
+
+    public double getScrollBack() { return scrollBack; }
+
+    /**
+     * Get the x value of the oldest point in the history or the buffer
+     * In dynamic mode x values are relative to the newest point
+     *
+     * @see #setScrollBack(double)
+     */
+    public double getHistoryXMin() {
+        final HistoryFile history = mSamples.getHistory();
+        if (history == null || history.size() == 0 || mSamples.isEmpty())
+            return getXMin();
+        return history.getX(0) - mSamples.getX(mSamples.size() - 1);
+    }
+
+    /**
+     * Grow the buffer before draining if out-of-bounds points are kept
+     *
+     * @param n number of samples about to be stored
+     */
+    private void reserve(int n) {
+        // With a history the buffer stays bounded, old points are spilled instead
+        if (!autoDelete && mSamples.getHistory() == null && mSamples.size() + n > mSamples.capacity())
+            mSamples.setCapacity(Math.max(mSamples.capacity() * 2, mSamples.size() + n));
+    }
+
     public int getLineColor() { return mStyles.lineColor; }
 
     public void setLineColor(int color) {
         mStyles.lineColor = color;
+        stylesDirty = true;
         if (autoInvalidate)
             invalidate();
     }
@@ -451,56 +1483,161 @@ public class DataSeries {
 
     public void setLineSize(int size) {
         mStyles.lineSize = size;
+        stylesDirty = true;
         if (autoInvalidate)
             invalidate();
     }
 
+    /**
+     * Get the max y value of the stored points in O(1)
+     * With a data source, its y max bound
+     */
     public double getYMax() {
-        if (mDataPoints.size() == 0) {
+        if (mSource != null)
+            return mSource.getYMax();
+        if (mSamples.isEmpty()) {
             Log.e(TAG, "No point stored!");
             return 0;
         }
-        double tmp = Double.NEGATIVE_INFINITY;
-        for (Point p: mDataPoints) {
-            if (p.y > tmp)
-                tmp = p.y;
-        }
-        return tmp;
+        return mSamples.maxY();
     }
 
+    /**
+     * Get the max y value of the points within [xFrom, xTo]
+     * In dynamic mode x values are relative to the newest point
+     * Costs O(log n) plus the number of points in the range
+     *
+     * @param xFrom x range start
+     * @param xTo x range end
+     * @return max y value, NaN if no point is in the range
+     * @see #getXMax()
+     */
+    public double getYMax(double xFrom, double xTo) {
+        return extremum(xFrom, xTo, true);
+    }
+
+    /**
+     * Get the min y value of the stored points in O(1)
+     * With a data source, its y min bound
+     */
     public double getYMin() {
-        if (mDataPoints.size() == 0) {
+        if (mSource != null)
+            return mSource.getYMin();
+        if (mSamples.isEmpty()) {
             Log.e(TAG, "No point stored!");
             return 0;
         }
-        double tmp = Double.POSITIVE_INFINITY;
-        for (Point p: mDataPoints) {
-            if (p.y < tmp)
-                tmp = p.y;
+        return mSamples.minY();
+    }
+
+    /**
+     * Get the min y value of the points within [xFrom, xTo]
+     * In dynamic mode x values are relative to the newest point
+     * Costs O(log n) plus the number of points in the range
+     *
+     * @param xFrom x range start
+     * @param xTo x range end
+     * @return min y value, NaN if no point is in the range
+     * @see #getXMax()
+     */
+    public double getYMin(double xFrom, double xTo) {
+        return extremum(xFrom, xTo, false);
+    }
+
+    /**
+     * Scan the points within an x range for the max or the min y value
+     *
+     * @param xFrom x range start
+     * @param xTo x range end
+     * @param max max if true, min otherwise
+     * @return extremum, NaN if no point is in the range
+     */
+    private double extremum(double xFrom, double xTo, boolean max) {
+        final SampleView samples = mSource != null ? mSource : mSamples;
+        final int size = samples.size();
+        if (size == 0)
+            return Double.NaN;
+        if (mGraphType != STATIC_GRAPH) {
+            final double shift = samples.getX(size - 1);
+            xFrom += shift;
+            xTo += shift;
+        }
+        int i = samples.floorIndex(xFrom);
+        if (i < 0 || samples.getX(i) < xFrom)
+            i++;
+        final int last = samples.floorIndex(xTo);
+        if (i > last)
+            return Double.NaN;
+        float tmp = samples.getY(0, i);
+        for (int c = 0; c < samples.channels(); c++) {
+            for (int j = i; j <= last; j++) {
+                final float y = samples.getY(c, j);
+                if (max ? y > tmp : y < tmp)
+                    tmp = y;
+            }
         }
         return tmp;
     }
 
+    /**
+     * Is there no point to draw, points appended since the last frame are not counted
+     */
+    public boolean isEmpty() {
+        return mSource != null ? mSource.size() == 0 : mSamples.isEmpty();
+    }
+
+    /**
+     * Get the x value of the newest point
+     * In dynamic mode x values are relative to the newest point, so it is 0
+     */
     public double getXMax() {
-        if (mDataPoints.size() == 0) {
+        if (mSource != null)
+            return mSource.size() == 0 ? 0 : mSource.getX(mSource.size() - 1);
+        if (mSamples.isEmpty()) {
             Log.e(TAG, "No point stored!");
             return 0;
         }
-        return mDataPoints.get(mDataPoints.size() - 1).x;
+        if (mGraphType != STATIC_GRAPH)
+            return 0;
+        return mSamples.getX(mSamples.size() - 1);
     }
 
+    /**
+     * Get the x value of the oldest point
+     * In dynamic mode x values are relative to the newest point
+     */
     public double getXMin() {
-        if (mDataPoints.size() == 0) {
+        if (mSource != null)
+            return mSource.size() == 0 ? 0 : mSource.getX(0);
+        if (mSamples.isEmpty()) {
             Log.e(TAG, "No point stored!");
             return 0;
         }
-        return mDataPoints.get(0).x;
+        if (mGraphType != STATIC_GRAPH)
+            return mSamples.getX(0) - mSamples.getX(mSamples.size() - 1);
+        return mSamples.getX(0);
     }
 
     public void setAutoInvalidate(boolean b) {
         autoInvalidate = b;
     }
 
+    /**
+     * Set the number of visible samples per pixel column above which
+     * each column is drawn as its first, min, max and last points only
+     * The result looks the same, peaks are kept
+     *
+     * @param samplesPerPixel threshold, Float.POSITIVE_INFINITY to never decimate
+     * @see #DEFAULT_DECIMATION_THRESHOLD
+     */
+    public void setDecimationThreshold(float samplesPerPixel) {
+        decimationThreshold = samplesPerPixel;
+        if (autoInvalidate)
+            invalidate();
+    }
+
+    public float getDecimationThreshold() { return decimationThreshold; }
+
     public void setAutoDeleteOutBoundsPoints(boolean b) {
         autoDelete = b;
     }
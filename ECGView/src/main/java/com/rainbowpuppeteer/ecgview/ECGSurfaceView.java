@@ -0,0 +1,263 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import androidx.annotation.Nullable;
+
+/**
+ * ECG Surface View
+ * Same graph and data series as ECGView, rendered on a dedicated thread into a surface,
+ * so a busy UI thread never stalls the waveform
+ *
+ * Frames are paced by the vsync of the render thread.
+ * The graph fills the view, there is no title.
+ * Graph and data series setters are not synchronized with the render thread,
+ * use queueEvent to change styles while rendering
+ *
+ * @author RainbowPuppeteer
+ * @see ECGView
+ */
+public class ECGSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+
+    private final static String TAG = "ECGView.ECGSurfaceView";
+
+    DataSeries mDataSeries;
+
+    Graph mGraph;
+
+    /**
+     * Color the surface is cleared with before each frame
+     *
+     * @see #setSurfaceColor(int)
+     */
+    private volatile int surfaceColor;
+
+    /**
+     * Frame rate cap of the render thread, 0 for every vsync
+     *
+     * @see #setTargetFrameRate(float)
+     */
+    private volatile float targetFrameRate;
+
+    /**
+     * Render thread and its handler, null while there is no surface
+     */
+    private HandlerThread mRenderThread;
+    private volatile Handler mRenderHandler;
+
+    /**
+     * RENDER THREAD ONLY
+     * Frame scheduler of the render thread
+     */
+    private FrameScheduler mScheduler;
+
+    /**
+     * Frame requests handle, null while there is no surface
+     */
+    private volatile FrameScheduler.Handle mFrameHandle;
+
+    /**
+     * RENDER THREAD ONLY
+     * Size of the surface
+     */
+    private int surfaceWidth, surfaceHeight;
+
+    private final GraphHost mHost = new GraphHost() {
+        @Override
+        public double getDataXMax() { return mDataSeries.getXMax(); }
+        @Override
+        public double getDataXMin() { return mDataSeries.getXMin(); }
+        @Override
+        public double getDataYMax() { return mDataSeries.getYMax(); }
+        @Override
+        public double getDataYMin() { return mDataSeries.getYMin(); }
+        @Override
+        public void requestLayout() {
+            queueEvent(ECGSurfaceView.this::layoutGraph);
+        }
+        @Override
+        public void requestFrame() { ECGSurfaceView.this.requestFrame(); }
+        @Override
+        public void dataReplaced() {
+            // The graph is only touched on the render thread
+            queueEvent(() -> mGraph.resetViewport());
+        }
+    };
+
+    public ECGSurfaceView(Context context) {
+        this(context, null);
+    }
+
+    public ECGSurfaceView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param context
+     * @param attrs
+     * @param defStyleAttr
+     */
+    public ECGSurfaceView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        surfaceColor = Color.WHITE;
+        mDataSeries = new DataSeries(mHost);
+        mGraph = new Graph(mHost);
+        mGraph.loadXmlStyles(context, attrs, defStyleAttr);
+        mDataSeries.loadXmlStyles(context, attrs, defStyleAttr);
+        getHolder().addCallback(this);
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        mRenderThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mRenderThread.start();
+        mRenderHandler = new Handler(mRenderThread.getLooper());
+        mRenderHandler.post(() -> {
+            // The scheduler follows the vsync of the thread it is created on
+            mScheduler = new FrameScheduler();
+            mScheduler.setTargetFrameRate(targetFrameRate);
+            mFrameHandle = mScheduler.register(this::render);
+        });
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        queueEvent(() -> {
+            surfaceWidth = width;
+            surfaceHeight = height;
+            layoutGraph();
+        });
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        // The surface must not be drawn to once this returns
+        final Handler handler = mRenderHandler;
+        mRenderHandler = null;
+        mFrameHandle = null;
+        handler.post(() -> {
+            mGraph.releaseLayer();
+            mDataSeries.releaseLayer();
+            // The render thread drains the series, close the recording before it quits
+            mDataSeries.stopRecording();
+        });
+        mRenderThread.quitSafely();
+        try {
+            mRenderThread.join();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while stopping the render thread");
+            Thread.currentThread().interrupt();
+        }
+        mRenderThread = null;
+        mScheduler = null;
+    }
+
+    /**
+     * RENDER THREAD ONLY
+     * Fit the graph to the surface and redraw
+     */
+    private void layoutGraph() {
+        if (surfaceWidth == 0 || surfaceHeight == 0)
+            return;
+        mGraph.layout(true, getPaddingLeft(), getPaddingTop(),
+                surfaceWidth - getPaddingRight(), surfaceHeight - getPaddingBottom());
+        requestFrame();
+    }
+
+    /**
+     * RENDER THREAD ONLY
+     * Draw a frame to the surface
+     */
+    private void render() {
+        if (surfaceWidth == 0 || surfaceHeight == 0)
+            return;
+        final SurfaceHolder holder = getHolder();
+        final Canvas canvas;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            canvas = holder.lockHardwareCanvas();
+        else
+            canvas = holder.lockCanvas();
+        if (canvas == null)
+            return;
+        try {
+            canvas.drawColor(surfaceColor);
+            mDataSeries.drainPending();
+            final int left = getPaddingLeft();
+            final int top = getPaddingTop();
+            mGraph.draw(canvas, left, top, surfaceWidth - getPaddingRight(), surfaceHeight - getPaddingBottom());
+            mDataSeries.draw(canvas,
+                    left + mGraph.getGraphLeft(),
+                    top + mGraph.getGraphTop(),
+                    left + mGraph.getGraphLeft() + mGraph.getGraphWidth(),
+                    top + mGraph.getGraphTop() + mGraph.getGraphHeight(),
+                    mGraph.getXMin(),
+                    mGraph.getYMin(),
+                    mGraph.getXMax(),
+                    mGraph.getYMax());
+        } finally {
+            holder.unlockCanvasAndPost(canvas);
+        }
+    }
+
+    /**
+     * Request a frame on the render thread, safe to call from any thread
+     * Requests are coalesced into at most one frame per vsync
+     */
+    void requestFrame() {
+        final FrameScheduler.Handle handle = mFrameHandle;
+        if (handle != null)
+            handle.request();
+    }
+
+    /**
+     * Run a task on the render thread, between two frames
+     * Dropped if there is no surface
+     *
+     * @param r task
+     */
+    public void queueEvent(Runnable r) {
+        final Handler handler = mRenderHandler;
+        if (handler != null)
+            handler.post(r);
+    }
+
+    /**
+     * Cap the frame rate of the render thread
+     *
+     * @param fps frames per second, 0 to draw on every vsync
+     * @see FrameScheduler#setTargetFrameRate(float)
+     */
+    public void setTargetFrameRate(float fps) {
+        targetFrameRate = fps;
+        queueEvent(() -> mScheduler.setTargetFrameRate(fps));
+    }
+
+    public float getTargetFrameRate() { return targetFrameRate; }
+
+    public void setSurfaceColor(int color) {
+        surfaceColor = color;
+        requestFrame();
+    }
+
+    public int getSurfaceColor() { return surfaceColor; }
+
+    public DataSeries getDateSeries() {
+        return mDataSeries;
+    }
+
+    public Graph getGraph() {
+        return mGraph;
+    }
+}
@@ -10,6 +10,7 @@ import android.graphics.Rect;
 import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.TextView;
 
@@ -62,6 +63,48 @@ public class ECGView extends View {
 
     Paint mTitlePaint;
 
+    /**
+     * Does the title paint need to be updated from the styles
+     */
+    private boolean stylesDirty;
+
+    /**
+     * Frame requests handle, null while detached
+     *
+     * @see #requestFrame()
+     */
+    private volatile FrameScheduler.Handle mFrameHandle;
+
+    /**
+     * Zoom and pan gestures of the static graph, null if disabled
+     *
+     * @see #setGesturesEnabled(boolean)
+     */
+    private ViewportGestures mGestures;
+
+    /**
+     * Lets the graph and the data series call back without exposing the view internals
+     */
+    private final GraphHost mHost = new GraphHost() {
+        @Override
+        public double getDataXMax() { return ECGView.this.getDataXMax(); }
+        @Override
+        public double getDataXMin() { return ECGView.this.getDataXMin(); }
+        @Override
+        public double getDataYMax() { return ECGView.this.getDataYMax(); }
+        @Override
+        public double getDataYMin() { return ECGView.this.getDataYMin(); }
+        @Override
+        public void requestLayout() { ECGView.this.requestLayout(); }
+        @Override
+        public void requestFrame() { ECGView.this.requestFrame(); }
+        @Override
+        public void dataReplaced() {
+            if (mGraph != null)
+                mGraph.resetViewport();
+        }
+    };
+
     String mTitle;
 
     int measureMode;
@@ -94,8 +137,11 @@ public class ECGView extends View {
 
     private void init() {
         mStyles = new Styles();
-        mDataSeries = new DataSeries(this);
-        mGraph = new Graph(this);
+        mTitlePaint = new Paint();
+        mTitlePaint.setAntiAlias(true);
+        stylesDirty = true;
+        mDataSeries = new DataSeries(mHost);
+        mGraph = new Graph(mHost);
         Log.d(TAG, "Init()");
     }
 
@@ -122,12 +168,15 @@ public class ECGView extends View {
         reloadStyles();
     }
 
+    /**
+     * Update the title paint, only if a style changed
+     */
     private void reloadStyles() {
-        mTitlePaint = new Paint();
-        mTitlePaint.setAntiAlias(true);
+        if (!stylesDirty)
+            return;
         mTitlePaint.setColor(getTitleColor());
         mTitlePaint.setTextSize(getTitleSize());
-        mTitlePaint.setTextAlign(Paint.Align.CENTER);
+        stylesDirty = false;
     }
 
     /**
@@ -213,6 +262,8 @@ public class ECGView extends View {
             Log.w(TAG, "This view should be used in hardware accelerated mode. Read this for more info:" +
                     "https://developer.android.com/guide/topics/graphics/hardware-accel.html");
         }
+        // Samples appended since the last frame must be stored before the graph reads the bounds
+        mDataSeries.drainPending();
         int top;
         if (isTitleVisible()) {
             reloadStyles();
@@ -237,6 +288,8 @@ public class ECGView extends View {
         } else {
             top = getPaddingTop();
         }
+        if (mGestures != null)
+            mGestures.computeScroll();
         mGraph.draw(canvas, getPaddingLeft(), top, getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
         mDataSeries.draw(canvas,
                 getPaddingLeft() + mGraph.getGraphLeft(),
@@ -249,6 +302,60 @@ public class ECGView extends View {
                 mGraph.getYMax());
     }
 
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mGestures != null && mGestures.onTouchEvent(event, getPaddingLeft() + mGraph.getGraphLeft())) {
+            // A pinch, drag or fling, not a click or a long press
+            final MotionEvent cancel = MotionEvent.obtain(event);
+            cancel.setAction(MotionEvent.ACTION_CANCEL);
+            super.onTouchEvent(cancel);
+            cancel.recycle();
+            return true;
+        }
+        // Taps go to the click listeners, the rest of the gesture must still reach the detectors
+        return super.onTouchEvent(event) || (mGestures != null && mGestures.isActive());
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mFrameHandle = FrameScheduler.getInstance().register(this::onFrame);
+        mFrameHandle.request();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        FrameScheduler.getInstance().unregister(mFrameHandle);
+        mFrameHandle = null;
+        mGraph.releaseLayer();
+        mDataSeries.releaseLayer();
+        // Nothing drains the series once detached, write the last block and close the file
+        mDataSeries.stopRecording();
+    }
+
+    /**
+     * Request a redraw on the next frame, safe to call from any thread
+     * Requests are coalesced into at most one draw per vsync
+     *
+     * @see FrameScheduler
+     */
+    void requestFrame() {
+        final FrameScheduler.Handle handle = mFrameHandle;
+        if (handle != null)
+            handle.request();
+        else
+            postInvalidate();
+    }
+
+    /**
+     * Invalidate the view, called by the frame scheduler
+     * In sweep mode the trace layer only strokes the new points, the rest is composited
+     */
+    private void onFrame() {
+        invalidate();
+    }
+
     public double getDataXMax() {
         return mDataSeries.getXMax();
     }
@@ -304,6 +411,25 @@ public class ECGView extends View {
         return textBounds.height();
     }
 
+    /**
+     * Pinch to zoom and drag or fling to pan the x range of the static graph
+     * Only the graph viewport changes, the view is never laid out again while zooming or panning
+     * Disabling the gestures brings the configured bounds and grid interval back
+     *
+     * @param b enable or not
+     * @see Graph#setViewport(double, double)
+     */
+    public void setGesturesEnabled(boolean b) {
+        if (b && mGestures == null) {
+            mGestures = new ViewportGestures(getContext(), mGraph, mDataSeries);
+        } else if (!b && mGestures != null) {
+            mGestures = null;
+            mGraph.resetViewport();
+        }
+    }
+
+    public boolean isGesturesEnabled() { return mGestures != null; }
+
     public void setMeasureMode(int measureMode) {
         if (measureMode == KEEP_GRID_SIZE || measureMode == KEEP_PARENT_SIZE)
             this.measureMode = measureMode;
@@ -311,22 +437,24 @@ public class ECGView extends View {
 
     public void setTitle(String title) {
         mTitle= title;
-        postInvalidate();
+        requestFrame();
     }
     public void setTitleSize(int size) {
         mStyles.titleSize = size;
-        postInvalidate();
+        stylesDirty = true;
+        requestFrame();
     }
     public void setTitleColor(int color) {
         mStyles.titleColor = color;
-        postInvalidate();
+        stylesDirty = true;
+        requestFrame();
     }
     public void setTitlePadding(int padding) {
         mStyles.titlePadding = padding;
-        postInvalidate();
+        requestFrame();
     }
     public void showTitle(boolean b) {
         mStyles.showTitle = b;
-        postInvalidate();
+        requestFrame();
     }
 }
@@ -0,0 +1,513 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * EDF Reader
+ * Reads EDF and EDF+ files, e.g. Holter exports, without loading the samples
+ * The header is parsed once, data records are read on demand through a FileChannel
+ *
+ * Signals are exposed as sample sources backing a static graph,
+ * only the records in view are read and decoded, a few pages are cached.
+ * The EDF+ annotations signal is decoded into time-stamped annotations
+ *
+ * x values are seconds from the start of the recording. Records are assumed contiguous,
+ * the gaps of discontinuous EDF+D files are not shown
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#setDataSource(SampleSource, boolean)
+ */
+public final class EdfReader implements Closeable {
+
+    private static final String TAG = "ECGView.EdfReader";
+
+    private static final String ANNOTATIONS_LABEL = "EDF Annotations";
+
+    /**
+     * Samples per signal decoded at a time by a source
+     */
+    private static final int PAGE_SAMPLES = 8192;
+
+    /**
+     * Pages cached by a source
+     */
+    private static final int CACHE_PAGES = 8;
+
+    /**
+     * EDF+ annotation
+     */
+    public static final class Annotation {
+
+        private final double onset;
+        private final double duration;
+        private final String text;
+
+        Annotation(double onset, double duration, String text) {
+            this.onset = onset;
+            this.duration = duration;
+            this.text = text;
+        }
+
+        /**
+         * Seconds from the start of the recording
+         */
+        public double getOnset() { return onset; }
+
+        /**
+         * Seconds, NaN if not set
+         */
+        public double getDuration() { return duration; }
+
+        public String getText() { return text; }
+    }
+
+    private final FileChannel mChannel;
+
+    private final boolean isEdfPlus;
+    private final String mPatient;
+    private final String mRecording;
+    private final String mStart;
+
+    /**
+     * Byte offset of the first data record
+     */
+    private final int mHeaderSize;
+
+    private final long mRecords;
+
+    /**
+     * Seconds per data record
+     */
+    private final double mRecordDuration;
+
+    /**
+     * Bytes per data record
+     */
+    private final int mRecordSize;
+
+    /**
+     * Per signal
+     */
+    private final String[] mLabel;
+    private final String[] mUnits;
+    private final double[] mPhysicalMin;
+    private final double[] mPhysicalMax;
+    private final int[] mSamplesPerRecord;
+
+    /**
+     * value = digital * gain + offset
+     */
+    private final float[] mGain;
+    private final float[] mOffset;
+
+    /**
+     * Byte offset of each signal within a record
+     */
+    private final int[] mSignalOffset;
+
+    /**
+     * Index of the annotations signal, -1 if none
+     */
+    private final int mAnnotations;
+
+    /**
+     * Constructor.
+     * Parses the header
+     *
+     * @param file EDF or EDF+ file
+     * @throws IOException if the file cannot be read or is not an EDF file
+     */
+    public EdfReader(File file) throws IOException {
+        mChannel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer header = read(0, 256);
+            if (!field(header, 0, 8).equals("0"))
+                throw new IOException("Not an EDF file: " + file);
+            mPatient = field(header, 8, 80);
+            mRecording = field(header, 88, 80);
+            mStart = field(header, 168, 8) + " " + field(header, 176, 8);
+            mHeaderSize = parseInt(header, 184, 8);
+            isEdfPlus = field(header, 192, 44).startsWith("EDF+");
+            final long records = parseInt(header, 236, 8);
+            mRecordDuration = Double.parseDouble(field(header, 244, 8));
+            final int signals = parseInt(header, 252, 4);
+            if (signals <= 0 || mHeaderSize != 256 * (signals + 1))
+                throw new IOException("Corrupted EDF header: " + file);
+
+            header = read(256, 256 * signals);
+            mLabel = new String[signals];
+            mUnits = new String[signals];
+            mPhysicalMin = new double[signals];
+            mPhysicalMax = new double[signals];
+            mSamplesPerRecord = new int[signals];
+            mGain = new float[signals];
+            mOffset = new float[signals];
+            mSignalOffset = new int[signals];
+            int annotations = -1;
+            int recordSize = 0;
+            // Each field is stored for every signal before the next field
+            for (int s = 0; s < signals; s++) {
+                mLabel[s] = field(header, s * 16, 16);
+                mUnits[s] = field(header, signals * 96 + s * 8, 8);
+                mPhysicalMin[s] = Double.parseDouble(field(header, signals * 104 + s * 8, 8));
+                mPhysicalMax[s] = Double.parseDouble(field(header, signals * 112 + s * 8, 8));
+                final int digitalMin = parseInt(header, signals * 120 + s * 8, 8);
+                final int digitalMax = parseInt(header, signals * 128 + s * 8, 8);
+                mSamplesPerRecord[s] = parseInt(header, signals * 216 + s * 8, 8);
+                if (digitalMax <= digitalMin || mSamplesPerRecord[s] <= 0)
+                    throw new IOException("Corrupted EDF signal " + s + ": " + file);
+                final double gain = (mPhysicalMax[s] - mPhysicalMin[s]) / (digitalMax - digitalMin);
+                mGain[s] = (float) gain;
+                mOffset[s] = (float) (mPhysicalMin[s] - digitalMin * gain);
+                mSignalOffset[s] = recordSize;
+                recordSize += 2 * mSamplesPerRecord[s];
+                if (isEdfPlus && annotations < 0 && mLabel[s].equals(ANNOTATIONS_LABEL))
+                    annotations = s;
+            }
+            mAnnotations = annotations;
+            mRecordSize = recordSize;
+            // -1 while the file was being recorded, count the records present
+            final long present = (mChannel.size() - mHeaderSize) / mRecordSize;
+            mRecords = records < 0 ? present : Math.min(records, present);
+            if (!(mRecordDuration > 0))
+                throw new IOException("Corrupted EDF header: " + file);
+        } catch (NumberFormatException e) {
+            mChannel.close();
+            throw new IOException("Corrupted EDF header: " + file);
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read bytes at a position of the file
+     *
+     * @throws EOFException if the file ends before
+     */
+    private ByteBuffer read(long position, int n) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer, position);
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int n = mChannel.read(buffer, position);
+            if (n < 0)
+                throw new EOFException("Truncated EDF file");
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * ASCII header field, trimmed
+     */
+    private static String field(ByteBuffer header, int offset, int length) {
+        return new String(header.array(), offset, length, StandardCharsets.US_ASCII).trim();
+    }
+
+    private static int parseInt(ByteBuffer header, int offset, int length) {
+        return Integer.parseInt(field(header, offset, length));
+    }
+
+    public boolean isEdfPlus() { return isEdfPlus; }
+
+    public String getPatient() { return mPatient; }
+
+    public String getRecording() { return mRecording; }
+
+    /**
+     * Start date and time as stored, "dd.mm.yy hh.mm.ss"
+     */
+    public String getStart() { return mStart; }
+
+    /**
+     * Number of signals, the annotations signal included
+     */
+    public int getSignalCount() { return mLabel.length; }
+
+    public long getRecordCount() { return mRecords; }
+
+    /**
+     * Seconds per data record
+     */
+    public double getRecordDuration() { return mRecordDuration; }
+
+    public String getLabel(int signal) { return mLabel[signal]; }
+
+    public String getUnits(int signal) { return mUnits[signal]; }
+
+    /**
+     * Samples per second of a signal
+     */
+    public double getFrequency(int signal) { return mSamplesPerRecord[signal] / mRecordDuration; }
+
+    public double getPhysicalMin(int signal) { return mPhysicalMin[signal]; }
+
+    public double getPhysicalMax(int signal) { return mPhysicalMax[signal]; }
+
+    /**
+     * Index of the EDF+ annotations signal, -1 if none
+     */
+    public int getAnnotationSignal() { return mAnnotations; }
+
+    /**
+     * Get signals as a source for a static graph
+     * Signals must have the same sampling frequency, each one is a channel of the source
+     * The source reads the file while drawing, close the reader once it is not drawn anymore
+     *
+     * @param signals signal indices
+     * @return source, null if the signals cannot be read together
+     * @see DataSeries#setDataSource(SampleSource, boolean)
+     */
+    public SampleSource getSource(int... signals) {
+        if (signals.length == 0) {
+            Log.e(TAG, "Illegal argument");
+            return null;
+        }
+        for (int s: signals) {
+            if (s < 0 || s >= mLabel.length || s == mAnnotations
+                    || mSamplesPerRecord[s] != mSamplesPerRecord[signals[0]]) {
+                Log.e(TAG, "Illegal argument");
+                return null;
+            }
+        }
+        return new SignalSource(signals.clone());
+    }
+
+    /**
+     * Decode every annotation of the EDF+ annotations signal
+     * The time-keeping annotation starting each record is skipped
+     *
+     * @return annotations in file order, empty if there is no annotations signal
+     * @throws IOException if the file cannot be read
+     */
+    public List<Annotation> readAnnotations() throws IOException {
+        final List<Annotation> list = new ArrayList<>();
+        if (mAnnotations < 0)
+            return list;
+        final int length = 2 * mSamplesPerRecord[mAnnotations];
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        final byte[] tal = buffer.array();
+        for (long r = 0; r < mRecords; r++) {
+            buffer.clear();
+            readFully(buffer, mHeaderSize + r * mRecordSize + mSignalOffset[mAnnotations]);
+            parseAnnotations(tal, length, list);
+        }
+        return list;
+    }
+
+    /**
+     * Parse the time-stamped annotation lists of a record
+     * Each one is +onset[0x15 duration]0x14[text 0x14]... 0x00
+     */
+    private static void parseAnnotations(byte[] tal, int length, List<Annotation> out) {
+        int i = 0;
+        boolean first = true;
+        while (i < length && (tal[i] == '+' || tal[i] == '-')) {
+            int end = i;
+            while (end < length && tal[end] != 0)
+                end++;
+            int p = i;
+            while (p < end && tal[p] != 0x14 && tal[p] != 0x15)
+                p++;
+            double onset;
+            double duration = Double.NaN;
+            try {
+                onset = Double.parseDouble(new String(tal, i, p - i, StandardCharsets.US_ASCII));
+                if (p < end && tal[p] == 0x15) {
+                    final int q = ++p;
+                    while (p < end && tal[p] != 0x14)
+                        p++;
+                    duration = Double.parseDouble(new String(tal, q, p - q, StandardCharsets.US_ASCII));
+                }
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Malformed annotation skipped");
+                onset = Double.NaN;
+            }
+            // Texts, separated by 0x14
+            p++;
+            boolean empty = true;
+            while (p < end && !Double.isNaN(onset)) {
+                int q = p;
+                while (q < end && tal[q] != 0x14)
+                    q++;
+                if (q > p) {
+                    out.add(new Annotation(onset, duration, new String(tal, p, q - p, StandardCharsets.UTF_8)));
+                    empty = false;
+                }
+                p = q + 1;
+            }
+            if (empty && !first && !Double.isNaN(onset))
+                out.add(new Annotation(onset, duration, ""));
+            first = false;
+            // Lists are followed by one or more 0x00
+            i = end;
+            while (i < length && tal[i] == 0)
+                i++;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Signals read page by page, a page being consecutive records of every signal
+     */
+    private final class SignalSource extends SampleSource {
+
+        private final int[] mSignals;
+        private final int mSamplesPerRecord;
+        private final int mSize;
+        private final double mInterval;
+        private final double mYMin, mYMax;
+
+        /**
+         * Records and samples per signal in a page
+         */
+        private final int mPageRecords;
+        private final int mPageSamples;
+
+        /**
+         * Raw records of a page
+         */
+        private final ByteBuffer mBuffer;
+
+        /**
+         * Cache slots: page index, decoded samples by channel
+         */
+        private final long[] mPage;
+        private final float[][][] mY;
+
+        /**
+         * Slot of the last page read, slot evicted next
+         */
+        private int mLast, mNext;
+
+        SignalSource(int[] signals) {
+            mSignals = signals;
+            mSamplesPerRecord = EdfReader.this.mSamplesPerRecord[signals[0]];
+            mSize = (int) Math.min(Integer.MAX_VALUE, mRecords * mSamplesPerRecord);
+            mInterval = mRecordDuration / mSamplesPerRecord;
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int s: signals) {
+                min = Math.min(min, Math.min(mPhysicalMin[s], mPhysicalMax[s]));
+                max = Math.max(max, Math.max(mPhysicalMin[s], mPhysicalMax[s]));
+            }
+            mYMin = min;
+            mYMax = max;
+            mPageRecords = Math.max(1, PAGE_SAMPLES / mSamplesPerRecord);
+            mPageSamples = mPageRecords * mSamplesPerRecord;
+            mBuffer = ByteBuffer.allocateDirect(mPageRecords * mRecordSize).order(ByteOrder.LITTLE_ENDIAN);
+            mPage = new long[CACHE_PAGES];
+            Arrays.fill(mPage, -1);
+            mY = new float[CACHE_PAGES][signals.length][mPageSamples];
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public int channels() {
+            return mSignals.length;
+        }
+
+        @Override
+        public double getX(int i) {
+            return i * mInterval;
+        }
+
+        @Override
+        public float getY(int channel, int i) {
+            final int page = i / mPageSamples;
+            int slot = mLast;
+            if (mPage[slot] != page)
+                slot = load(page);
+            return mY[slot][channel][i - page * mPageSamples];
+        }
+
+        @Override
+        public double getYMax() {
+            return mYMax;
+        }
+
+        @Override
+        public double getYMin() {
+            return mYMin;
+        }
+
+        @Override
+        public int floorIndex(double x) {
+            // Evenly spaced, no search
+            final double i = Math.floor(x / mInterval + 1e-9);
+            return (int) Math.max(-1, Math.min(mSize - 1, i));
+        }
+
+        /**
+         * Find a cached page or read it in place of the oldest one
+         * A page that cannot be read holds NaN and is read again on the next access
+         *
+         * @param page page index
+         * @return slot
+         */
+        private int load(int page) {
+            for (int slot = 0; slot < CACHE_PAGES; slot++) {
+                if (mPage[slot] == page)
+                    return mLast = slot;
+            }
+            final int slot = mNext;
+            mNext = (mNext + 1) % CACHE_PAGES;
+            mPage[slot] = page;
+            mLast = slot;
+
+            final long record = (long) page * mPageRecords;
+            final int records = (int) Math.min(mPageRecords, mRecords - record);
+            final float[][] y = mY[slot];
+            mBuffer.clear().limit(records * mRecordSize);
+            try {
+                readFully(mBuffer, mHeaderSize + record * mRecordSize);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot read records: " + e.getMessage());
+                for (float[] lane: y)
+                    Arrays.fill(lane, Float.NaN);
+                // Not cached, the next access reads the page again
+                mPage[slot] = -1;
+                mNext = slot;
+                return slot;
+            }
+            // Digital to physical, one signal of one record at a time
+            for (int c = 0; c < mSignals.length; c++) {
+                final int s = mSignals[c];
+                final float gain = mGain[s];
+                final float offset = mOffset[s];
+                final float[] lane = y[c];
+                for (int r = 0; r < records; r++) {
+                    int p = r * mRecordSize + mSignalOffset[s];
+                    final int base = r * mSamplesPerRecord;
+                    for (int j = 0; j < mSamplesPerRecord; j++, p += 2)
+                        lane[base + j] = mBuffer.getShort(p) * gain + offset;
+                }
+            }
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.rainbowpuppeteer.ecgview;
+
+/**
+ * Extrema Deque
+ * Monotonic deque giving the max (or min) of a sliding window of samples
+ * in amortized O(1) per sample
+ *
+ * Samples are identified by an ever increasing sequence number,
+ * the window slides when the oldest ones are evicted
+ *
+ * @author RainbowPuppeteer
+ * @see SampleBuffer
+ */
+final class ExtremaDeque {
+
+    /**
+     * Track the max or the min
+     */
+    private final boolean mMax;
+
+    /**
+     * Sequence numbers and values of the candidates, oldest first
+     * Values are strictly decreasing (max) or increasing (min)
+     */
+    private long[] mSeqs;
+    private float[] mValues;
+
+    private int mHead;
+    private int mSize;
+
+    /**
+     * Constructor.
+     *
+     * @param max track the max if true, the min otherwise
+     * @param capacity maximum number of samples in the window
+     */
+    ExtremaDeque(boolean max, int capacity) {
+        mMax = max;
+        mSeqs = new long[capacity];
+        mValues = new float[capacity];
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Get the extremum of the window
+     * The deque must not be empty
+     *
+     * @return max or min value
+     */
+    float peek() {
+        return mValues[mHead];
+    }
+
+    /**
+     * Add the newest sample of the window
+     *
+     * @param seq sequence number, greater than any pushed before
+     * @param value value
+     */
+    void push(long seq, float value) {
+        // Drop the candidates the new sample outlives and dominates
+        while (mSize > 0) {
+            final int back = index(mSize - 1);
+            if (mMax ? mValues[back] > value : mValues[back] < value)
+                break;
+            mSize--;
+        }
+        final int tail = index(mSize);
+        mSeqs[tail] = seq;
+        mValues[tail] = value;
+        mSize++;
+    }
+
+    /**
+     * Slide the window past the evicted samples
+     *
+     * @param seq sequence number of the oldest sample still in the window
+     */
+    void evictBefore(long seq) {
+        while (mSize > 0 && mSeqs[mHead] < seq) {
+            mHead = index(1);
+            mSize--;
+        }
+    }
+
+    void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Change the capacity, the deque is cleared
+     *
+     * @param capacity maximum number of samples in the window
+     */
+    void reset(int capacity) {
+        if (capacity != mSeqs.length) {
+            mSeqs = new long[capacity];
+            mValues = new float[capacity];
+        }
+        clear();
+    }
+
+    private int index(int i) {
+        int p = mHead + i;
+        return p >= mSeqs.length ? p - mSeqs.length : p;
+    }
+}
@@ -0,0 +1,98 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.util.Log;
+
+/**
+ * FIR Filter
+ * Convolution with a fixed set of taps
+ * Symmetric taps give a linear phase, every frequency delayed by (taps - 1) / 2 samples
+ *
+ * The history of each channel is stored twice in a row,
+ * so every output is one contiguous dot product without wrapping
+ *
+ * @author RainbowPuppeteer
+ * @see SampleFilter
+ */
+public final class FirFilter extends SampleFilter {
+
+    private static final String TAG = "ECGView.FirFilter";
+
+    private final float[] mTaps;
+
+    /**
+     * History by channel, 2 * taps long, newest sample at mPos and mPos + taps
+     */
+    private float[][] mHistory = new float[0][];
+    private int[] mPos = new int[0];
+
+    /**
+     * Constructor
+     *
+     * @param taps impulse response, taps[0] weighs the newest sample, copied
+     */
+    public FirFilter(float[] taps) {
+        if (taps == null || taps.length == 0) {
+            Log.e(TAG, "Illegal argument");
+            taps = new float[]{1};
+        }
+        mTaps = taps.clone();
+    }
+
+    /**
+     * Windowed sinc low-pass, Hamming window, unit gain at 0 Hz
+     *
+     * @param fs sample rate
+     * @param f0 cutoff frequency, below fs / 2
+     * @param taps number of taps, odd, more gives a sharper cutoff and a longer delay
+     * @return filter, null if illegal
+     */
+    public static FirFilter lowPass(double fs, double f0, int taps) {
+        if (!(fs > 0) || !(f0 > 0) || !(f0 < fs / 2) || taps <= 0 || taps % 2 == 0) {
+            Log.e(TAG, "Illegal argument");
+            return null;
+        }
+        final float[] h = new float[taps];
+        final int m = taps / 2;
+        final double fc = f0 / fs;
+        double sum = 0;
+        for (int i = 0; i < taps; i++) {
+            final int k = i - m;
+            final double sinc = k == 0 ? 2 * fc : Math.sin(2 * Math.PI * fc * k) / (Math.PI * k);
+            final double window = taps == 1 ? 1 : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (taps - 1));
+            h[i] = (float) (sinc * window);
+            sum += h[i];
+        }
+        for (int i = 0; i < taps; i++)
+            h[i] /= sum;
+        return new FirFilter(h);
+    }
+
+    public int getDelay() {
+        return (mTaps.length - 1) / 2;
+    }
+
+    @Override
+    public void reset(int channels) {
+        mHistory = new float[channels][2 * mTaps.length];
+        mPos = new int[channels];
+    }
+
+    @Override
+    public void process(int channel, float[] y, int offset, int length) {
+        final float[] taps = mTaps;
+        final int n = taps.length;
+        final float[] h = mHistory[channel];
+        int pos = mPos[channel];
+        for (int i = offset; i < offset + length; i++) {
+            if (++pos == n)
+                pos = 0;
+            h[pos] = h[pos + n] = y[i];
+            // h[pos + n - k] is the sample k steps back
+            float sum = 0;
+            for (int k = 0, j = pos + n; k < n; k++, j--)
+                sum += taps[k] * h[j];
+            y[i] = sum;
+        }
+        mPos[channel] = pos;
+    }
+}
@@ -0,0 +1,182 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Frame Scheduler
+ * Paces the redraws of every ECGView on the display vsync
+ *
+ * Data and style changes only request a frame, any number of requests
+ * from any thread are coalesced into at most one draw per vsync,
+ * views with nothing new are not drawn, and the frame rate can be capped
+ *
+ * @author RainbowPuppeteer
+ * @see ECGView#requestFrame()
+ */
+public final class FrameScheduler {
+
+    /**
+     * Frames may come this early and still count for the target rate
+     * Absorbs vsync jitter
+     */
+    private static final long FRAME_TOLERANCE_NANOS = 2_000_000L;
+
+    private static FrameScheduler sInstance;
+
+    /**
+     * A registered client, requests frames for it
+     */
+    static final class Handle {
+
+        private final Runnable mOnFrame;
+        private final FrameScheduler mScheduler;
+
+        /**
+         * Is a frame requested since the last one
+         */
+        private final AtomicBoolean mRequested;
+
+        private Handle(FrameScheduler scheduler, Runnable onFrame) {
+            mScheduler = scheduler;
+            mOnFrame = onFrame;
+            mRequested = new AtomicBoolean();
+        }
+
+        /**
+         * Request a frame, safe to call from any thread
+         */
+        void request() {
+            if (mRequested.compareAndSet(false, true))
+                mScheduler.schedule();
+        }
+    }
+
+    private final Choreographer mChoreographer;
+
+    /**
+     * Registered clients, accessed on the scheduler thread only
+     */
+    private final ArrayList<Handle> mHandles;
+
+    /**
+     * Is the frame callback posted
+     */
+    private final AtomicBoolean mPosted;
+
+    /**
+     * Minimum time between two frames, 0 for every vsync
+     *
+     * @see #setTargetFrameRate(float)
+     */
+    private volatile long minFrameIntervalNanos;
+
+    /**
+     * Time of the last frame drawn
+     */
+    private long lastFrameNanos;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onVsync(frameTimeNanos);
+        }
+    };
+
+    /**
+     * Constructor.
+     * Must be called on a looper thread, frames are dispatched on it
+     */
+    FrameScheduler() {
+        mChoreographer = Choreographer.getInstance();
+        mHandles = new ArrayList<>();
+        mPosted = new AtomicBoolean();
+        minFrameIntervalNanos = 0;
+    }
+
+    /**
+     * Get the scheduler of the UI thread, shared by every ECGView
+     * The first call must be made on the UI thread
+     *
+     * @return scheduler
+     */
+    public static synchronized FrameScheduler getInstance() {
+        if (sInstance == null)
+            sInstance = new FrameScheduler();
+        return sInstance;
+    }
+
+    /**
+     * Cap the frame rate, e.g. 30 on battery
+     *
+     * @param fps frames per second, 0 to draw on every vsync
+     */
+    public void setTargetFrameRate(float fps) {
+        minFrameIntervalNanos = fps > 0 ? (long) (1_000_000_000L / fps) : 0;
+    }
+
+    /**
+     * Get the frame rate cap
+     *
+     * @return frames per second, 0 if every vsync is used
+     */
+    public float getTargetFrameRate() {
+        final long interval = minFrameIntervalNanos;
+        return interval > 0 ? 1_000_000_000f / interval : 0;
+    }
+
+    /**
+     * SCHEDULER THREAD ONLY
+     * Register a client
+     *
+     * @param onFrame called on the scheduler thread for each frame requested
+     * @return handle to request frames with
+     */
+    Handle register(Runnable onFrame) {
+        Handle handle = new Handle(this, onFrame);
+        mHandles.add(handle);
+        return handle;
+    }
+
+    /**
+     * SCHEDULER THREAD ONLY
+     * Unregister a client, its pending request is dropped
+     *
+     * @param handle handle returned by register
+     */
+    void unregister(Handle handle) {
+        mHandles.remove(handle);
+    }
+
+    /**
+     * Post the frame callback if not posted yet
+     */
+    private void schedule() {
+        if (mPosted.compareAndSet(false, true))
+            mChoreographer.postFrameCallback(mFrameCallback);
+    }
+
+    /**
+     * Draw the clients that requested a frame
+     *
+     * @param frameTimeNanos vsync time
+     */
+    private void onVsync(long frameTimeNanos) {
+        final long interval = minFrameIntervalNanos;
+        if (interval > 0 && frameTimeNanos - lastFrameNanos < interval - FRAME_TOLERANCE_NANOS) {
+            // Too early for the target rate, wait for a later vsync
+            mChoreographer.postFrameCallback(mFrameCallback);
+            return;
+        }
+        lastFrameNanos = frameTimeNanos;
+        // Requests made from now on post a new callback
+        mPosted.set(false);
+        for (int i = 0; i < mHandles.size(); i++) {
+            Handle handle = mHandles.get(i);
+            if (handle.mRequested.getAndSet(false))
+                handle.mOnFrame.run();
+        }
+    }
+}
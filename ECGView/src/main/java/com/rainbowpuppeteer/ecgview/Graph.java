@@ -21,7 +21,17 @@ public class Graph {
 
     private static final int NaN = Integer.MIN_VALUE;
 
-    private final ECGView mECGView;
+    /**
+     * Dirty bits of the paints
+     *
+     * @see #reloadStyles()
+     */
+    private static final int DIRTY_LABEL_PAINT = 1;
+    private static final int DIRTY_GRID_PAINT = 1 << 1;
+    private static final int DIRTY_LARGE_GRID_PAINT = 1 << 2;
+    private static final int DIRTY_ALL_PAINTS = DIRTY_LABEL_PAINT | DIRTY_GRID_PAINT | DIRTY_LARGE_GRID_PAINT;
+
+    private final GraphHost mHost;
 
     private final Styles mStyles;
 
@@ -44,23 +54,86 @@ public class Graph {
 
     private boolean autoInvalidate;
     private boolean layoutRequired;
-    private boolean invalidateRequired;
     private boolean syncBounds;
 
+    /**
+     * x bounds set by setViewport, drawn as is instead of being snapped to the grid
+     *
+     * @see #setViewport(double, double)
+     */
+    private boolean freeXBounds;
+
+    /**
+     * x interval of a grid while freeXBounds, gridXInterval keeps the configured one
+     */
+    private double viewportXInterval;
+
+    /**
+     * Bounds before the first setViewport, restored by resetViewport
+     *
+     * @see #resetViewport()
+     */
+    private double savedXMin, savedXMax;
+    private boolean savedSyncBounds;
+
     private boolean keepGridHeight;
     private boolean keepGridWidth;
 
-    Paint mLabelPaint;
-    Paint mGridPaint;
-    Paint mLargeGridPaint;
+    final Paint mLabelPaint;
+    final Paint mGridPaint;
+    final Paint mLargeGridPaint;
+
+    /**
+     * Paints to update from the styles before the next use
+     */
+    private int dirtyPaints;
+
+    /**
+     * Cached grids and labels, re-recorded on layout, style or bounds changes
+     */
+    private final GridLayer mGridLayer;
+
+    /**
+     * Bounds the grid layer was recorded with
+     */
+    private double layerXMin, layerXMax, layerYMin, layerYMax;
+
+    /**
+     * Was the grid layer recorded without its x part, for the viewport
+     */
+    private boolean layerViewport;
 
-    Graph(ECGView ecgView) {
-        mECGView = ecgView;
+    /**
+     * ONLY WITH A VIEWPORT
+     * Vertical grids and x labels, recorded over a range wider than the viewport
+     * and translated while panning, recorded again once panned out of it or zoomed
+     */
+    private final GridLayer mXLayer;
+
+    /**
+     * x min and interval mXLayer was recorded with, x span it covers
+     */
+    private double xLayerXMin, xLayerInterval, xLayerSpan;
+
+    /**
+     * Formatted labels of the large grids
+     */
+    private final LabelCache mXLabels;
+    private final LabelCache mYLabels;
+
+    Graph(GraphHost host) {
+        mHost = host;
         mStyles = new Styles();
 
         mLabelPaint = new Paint();
         mGridPaint = new Paint();
         mLargeGridPaint = new Paint();
+        mLabelPaint.setAntiAlias(true);
+        dirtyPaints = DIRTY_ALL_PAINTS;
+        mGridLayer = new GridLayer();
+        mXLayer = new GridLayer();
+        mXLabels = new LabelCache();
+        mYLabels = new LabelCache();
 
         xFormat = new DecimalFormat("#.##");
         yFormat = new DecimalFormat("#.#");
@@ -82,7 +155,6 @@ public class Graph {
         gridXInterval = 0.04;
 
         autoInvalidate = false;
-        invalidateRequired = true;
         syncBounds = true;
         keepGridHeight = false;
         keepGridWidth = false;
@@ -90,19 +162,28 @@ public class Graph {
         layoutRequired();
     }
 
+    /**
+     * Update the paints whose styles changed since the last time
+     */
     private void reloadStyles() {
-        mLabelPaint = new Paint();
-        mLabelPaint.setColor(getLabelColor());
-        mLabelPaint.setTextSize(getLabelTextSize());
-        mLabelPaint.setAntiAlias(true);
+        if (dirtyPaints == 0)
+            return;
 
-        mLargeGridPaint = new Paint();
-        mLargeGridPaint.setColor(getLargeGridColor());
-        mLargeGridPaint.setStrokeWidth(getLargeGridBoarderSize());
+        if ((dirtyPaints & DIRTY_LABEL_PAINT) != 0) {
+            mLabelPaint.setColor(getLabelColor());
+            mLabelPaint.setTextSize(getLabelTextSize());
+        }
 
-        mGridPaint = new Paint();
-        mGridPaint.setColor(getGridColor());
-        mGridPaint.setStrokeWidth(getGridBoarderSize());
+        if ((dirtyPaints & DIRTY_LARGE_GRID_PAINT) != 0) {
+            mLargeGridPaint.setColor(getLargeGridColor());
+            mLargeGridPaint.setStrokeWidth(getLargeGridBoarderSize());
+        }
+
+        if ((dirtyPaints & DIRTY_GRID_PAINT) != 0) {
+            mGridPaint.setColor(getGridColor());
+            mGridPaint.setStrokeWidth(getGridBoarderSize());
+        }
+        dirtyPaints = 0;
     }
 
     /**
@@ -233,15 +314,6 @@ public class Graph {
         Log.d(TAG, "LABELHEIGHT "+labelHeight);
     }
 
-    /**
-     * Calculate the height of given value
-     */
-    private int calculateLabelHeight(String s) {
-        Rect textBounds = new Rect();
-        mLabelPaint.getTextBounds(s, 0, s.length(), textBounds);
-        return textBounds.height();
-    }
-
     /**
      * Calculate the width of current labels
      * according to yMax, yMin and labelTextSize
@@ -321,12 +393,14 @@ public class Graph {
             yMax = Double.NaN;
         }
 
-        if (!Double.isNaN(xMin) && !Double.isNaN(xMax)) {
+        if (freeXBounds) {
+            // Kept as set by the viewport
+        } else if (!Double.isNaN(xMin) && !Double.isNaN(xMax)) {
             calculateXBounds(xMin, xMax);
         } else if (Double.isNaN(xMax) && Double.isNaN(xMin)) {
             // Get current data bounds if both bounds are undefined
-            xMax = round(mECGView.getDataXMax(), gridXInterval);
-            xMin = round(mECGView.getDataXMin(), gridXInterval);
+            xMax = round(mHost.getDataXMax(), gridXInterval);
+            xMin = round(mHost.getDataXMin(), gridXInterval);
             calculateXBounds(xMin, xMax);
         } else if (Double.isNaN(xMax)) {
             // Calculate the other one
@@ -338,8 +412,8 @@ public class Graph {
         if (!Double.isNaN(yMin) && !Double.isNaN(yMax)) {
             calculateYBounds(yMin, yMax);
         } else if (Double.isNaN(yMax) && Double.isNaN(yMin)) {
-            yMax = round(mECGView.getDataYMax(), gridYInterval);
-            yMin = round(mECGView.getDataYMin(), gridYInterval);
+            yMax = round(mHost.getDataYMax(), gridYInterval);
+            yMin = round(mHost.getDataYMin(), gridYInterval);
             calculateYBounds(yMin, yMax);
         } else if (Double.isNaN(yMax)) {
             yMax = yMin + gridYInterval * yGridNumbers;
@@ -501,6 +575,8 @@ public class Graph {
     }
 
     public void resizeGraph(int width, int height) {
+        // Labels are measured with the label paint
+        reloadStyles();
         width -= getGraphPadding() * 2;
         height -= getGraphPadding() * 2;
         calculateLabelWidth();
@@ -509,6 +585,7 @@ public class Graph {
         if (isXLabelsVisible()) height = height - getLabelHeight() - getLabelPadding();
         resizeGridWidth(width, xGridNumbers);
         resizeGridHeight(height, yGridNumbers);
+        gridChanged();
     }
 
     public void layout(boolean changed, int left, int top, int right, int bottom) {
@@ -536,21 +613,116 @@ public class Graph {
             resizeGraph(width, height);
             layoutRequired = false;
         }
+        gridChanged();
     }
 
     public void draw(Canvas canvas, int left, int top, int right, int bottom) {
         reloadStyles();
 
         if (xGridNumbers == NaN || yGridNumbers == NaN || layoutRequired) {
-            mECGView.requestLayout();
+            mHost.requestLayout();
             return;
         }
 
         checkBounds();
 
-        drawHorizontal(canvas, left, top);
-        drawVertical(canvas, left, top);
-        invalidateRequired = false;
+        // Labels may overflow the graph bounds, record them with a margin
+        final int margin = getLabelTextSize() * 2;
+        final int width = right - left + 2 * margin;
+        final int height = bottom - top + 2 * margin;
+        if (!mGridLayer.isValid(canvas, width, height) || layerViewport != freeXBounds
+                || (!freeXBounds && (xMin != layerXMin || xMax != layerXMax))
+                || yMin != layerYMin || yMax != layerYMax) {
+            Canvas layer = mGridLayer.beginRecording(canvas, width, height);
+            if (!freeXBounds)
+                drawHorizontal(layer, margin, margin);
+            drawVertical(layer, margin, margin);
+            mGridLayer.endRecording();
+            layerViewport = freeXBounds;
+            layerXMin = xMin;
+            layerXMax = xMax;
+            layerYMin = yMin;
+            layerYMax = yMax;
+        }
+        mGridLayer.draw(canvas, left - margin, top - margin);
+        if (freeXBounds)
+            drawViewportX(canvas, left, top, height, margin);
+    }
+
+    /**
+     * Draw the vertical grids and x labels of the viewport
+     * They are anchored to multiples of the grid interval and recorded over twice the viewport,
+     * so panning only translates the layer
+     *
+     * @param height layer height
+     * @param margin layer margin above the graph
+     */
+    private void drawViewportX(Canvas canvas, int left, int top, int height, int margin) {
+        final double span = xMax - xMin;
+        final int graphWidth = getGraphWidth();
+        final double scale = graphWidth / span;
+        final int width = graphWidth * 2;
+        if (!mXLayer.isValid(canvas, width, height) || viewportXInterval != xLayerInterval || span != xLayerSpan
+                || xMin < xLayerXMin || xMax > xLayerXMin + 2 * span) {
+            xLayerXMin = xMin - span / 2;
+            xLayerInterval = viewportXInterval;
+            xLayerSpan = span;
+            final Canvas layer = mXLayer.beginRecording(canvas, width, height);
+            drawViewportGrids(layer, margin, xLayerXMin, xLayerXMin + 2 * span, scale);
+            mXLayer.endRecording();
+        }
+        final float graphLeft = left + getGraphLeft();
+        final int save = canvas.save();
+        canvas.clipRect(graphLeft, top - margin, graphLeft + graphWidth, top - margin + height);
+        mXLayer.draw(canvas, (float) (graphLeft - (xMin - xLayerXMin) * scale), top - margin);
+        canvas.restoreToCount(save);
+    }
+
+    /**
+     * Record the vertical grids and x labels of [from, to], x = from at the layer left
+     *
+     * @param top y of the view top in the layer
+     * @param scale pixels per x unit
+     */
+    private void drawViewportGrids(Canvas canvas, int top, double from, double to, double scale) {
+        final float graphTop = top + getGraphTop();
+        final float graphBottom = graphTop + getGraphHeight();
+        final double interval = viewportXInterval;
+        mLabelPaint.setTextAlign(Paint.Align.CENTER);
+        for (long k = (long) Math.ceil(from / interval); k * interval <= to; k++) {
+            final float xPos = (float) ((k * interval - from) * scale);
+            if (isGridsVisible() && isVerticalVisible())
+                canvas.drawLine(xPos, graphTop, xPos, graphBottom, mGridPaint);
+            if (k % gridsPerLargeGrid != 0)
+                continue;
+            if (isLargeGridsVisible() && isVerticalVisible())
+                canvas.drawLine(xPos, graphTop, xPos, graphBottom, mLargeGridPaint);
+            if (isXLabelsVisible()) {
+                final String label = xFormat.format(k * interval);
+                if (getXLabelPosition() == XLabelPosition.TOP) {
+                    canvas.drawText(label, xPos, graphTop, mLabelPaint);
+                } else if (getXLabelPosition() == XLabelPosition.BOTTOM) {
+                    float yPos = graphBottom + getGraphPadding() + getLabelPadding() + getLabelHeight();
+                    canvas.drawText(label, xPos, yPos, mLabelPaint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-record the grid layer on the next draw
+     */
+    private void gridChanged() {
+        mGridLayer.invalidate();
+        mXLayer.invalidate();
+    }
+
+    /**
+     * Free the grid layer, it is recorded again on the next draw
+     */
+    void releaseLayer() {
+        mGridLayer.release();
+        mXLayer.release();
     }
 
     private void drawHorizontal(Canvas canvas, int left, int top) {
@@ -561,6 +733,14 @@ public class Graph {
 
         // Label settings
         mLabelPaint.setTextAlign(Paint.Align.CENTER);
+        if (isXLabelsVisible()
+                && !mXLabels.isValid(xMin, gridXInterval, xGridNumbers, gridsPerLargeGrid, xFormat, mLabelPaint.getTextSize())) {
+            mXLabels.reset(xMin, gridXInterval, xGridNumbers, gridsPerLargeGrid, xFormat, mLabelPaint.getTextSize());
+            for (int i = 0; i <= xGridNumbers; i++) {
+                if (i % gridsPerLargeGrid == 0 || i == xGridNumbers)
+                    mXLabels.set(i, xMin + i * gridXInterval, mLabelPaint);
+            }
+        }
 
         for (int i=0; i <= xGridNumbers; i++) {
 
@@ -578,7 +758,7 @@ public class Graph {
                 }
                 // Draw X labels
                 if (isXLabelsVisible()) {
-                    String label = xFormat.format(xMin +  i * gridXInterval);
+                    String label = mXLabels.get(i);
                     if (getXLabelPosition() == XLabelPosition.TOP) {
                         canvas.drawText(label, xPos, graphTop, mLabelPaint);
                     } else if (getXLabelPosition() == XLabelPosition.BOTTOM) {
@@ -595,6 +775,15 @@ public class Graph {
         float graphRight = graphLeft + getGraphWidth();
         float graphTop = top + getGraphTop();
 
+        if (isYLabelsVisible()
+                && !mYLabels.isValid(yMax, gridYInterval, yGridNumbers, gridsPerLargeGrid, yFormat, mLabelPaint.getTextSize())) {
+            mYLabels.reset(yMax, gridYInterval, yGridNumbers, gridsPerLargeGrid, yFormat, mLabelPaint.getTextSize());
+            for (int i = 0; i <= yGridNumbers; i++) {
+                if (i % gridsPerLargeGrid == 0 || i == yGridNumbers)
+                    mYLabels.set(i, round(yMax - i * gridYInterval, gridYInterval), mLabelPaint);
+            }
+        }
+
         for (int i=0; i <= yGridNumbers; i++) {
             float yPos = graphTop + i * getGridHeight();
 
@@ -603,15 +792,15 @@ public class Graph {
                 canvas.drawLine(graphLeft, yPos, graphRight, yPos, mGridPaint);
             }
 
-            if (i % gridsPerLargeGrid == 0 || i == xGridNumbers) {
+            if (i % gridsPerLargeGrid == 0 || i == yGridNumbers) {
                 // Draw large grids
                 if (isLargeGridsVisible() && isHorizontalVisible()) {
                     canvas.drawLine(graphLeft, yPos, graphRight, yPos, mLargeGridPaint);
                 }
                 // Draw Y labels
                 if (isYLabelsVisible()) {
-                    String label = yFormat.format(round(yMax - i * gridYInterval, gridYInterval));
-                    float yCenter = yPos + calculateLabelHeight(label) / 2f;
+                    String label = mYLabels.get(i);
+                    float yCenter = yPos + mYLabels.getCenterOffset(i);
                     if (getYLabelPosition() == YLabelPosition.LEFT) {
                         mLabelPaint.setTextAlign(Paint.Align.RIGHT);
                         float xPos = graphLeft - getGraphPadding() - getLabelPadding();
@@ -627,11 +816,11 @@ public class Graph {
 
     }
 
+    /**
+     * Redraw on the next frame
+     */
     public void invalidate() {
-        if (!invalidateRequired) {
-            invalidateRequired = true;
-            mECGView.postInvalidate();
-        }
+        mHost.requestFrame();
     }
 
     public void loadXmlStyles(Context context, AttributeSet attrs, int defStyleAttr) {
@@ -678,6 +867,7 @@ public class Graph {
 
         array.recycle();
 
+        dirtyPaints = DIRTY_ALL_PAINTS;
         reloadStyles();
     }
 
@@ -812,49 +1002,64 @@ public class Graph {
 
     public void setBackgroundColor(int color) {
         mStyles.backgroundColor = color;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
     public void setGridColor(int color) {
         mStyles.gridColor = color;
+        dirtyPaints |= DIRTY_GRID_PAINT;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
     public void setLargeGridColor(int color) {
         mStyles.largeGridColor = color;
+        dirtyPaints |= DIRTY_LARGE_GRID_PAINT;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
 
     public void setLabelColor(int color) {
         mStyles.labelColor = color;
+        dirtyPaints |= DIRTY_LABEL_PAINT;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
 
     public void setLabelTextSize(int size) {
         mStyles.labelTextSize = size;
+        dirtyPaints |= DIRTY_LABEL_PAINT;
         layoutRequired();
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
     public void setGridBoarderSize(int size) {
         mStyles.gridBoarderSize = size;
+        dirtyPaints |= DIRTY_GRID_PAINT;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
     public void setLargeGridBoarderSize(int size) {
         mStyles.largeGridBoarderSize = size;
+        dirtyPaints |= DIRTY_LARGE_GRID_PAINT;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
     public void setLabelPadding(int padding) {
         mStyles.labelPadding = padding;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
     public void setGraphPadding(int padding) {
         mStyles.graphPadding = padding;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -864,6 +1069,7 @@ public class Graph {
         if (changeGridNumbers) {
             xGridNumbers = NaN;
         }
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -873,6 +1079,7 @@ public class Graph {
         if (changeGridNumbers) {
             yGridNumbers = NaN;
         }
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -890,8 +1097,9 @@ public class Graph {
         setBounds(xMin, yMin, xMax, yMax, true, false);
         this.keepGridHeight = keepGridHeight;
         if (keepGridHeight) {
-            mECGView.requestLayout();
+            mHost.requestLayout();
         }
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -900,8 +1108,9 @@ public class Graph {
         setBounds(xMin, yMin, xMax, yMax, true, false);
         this.keepGridWidth = keepGridWidth;
         if (keepGridWidth) {
-            mECGView.requestLayout();
+            mHost.requestLayout();
         }
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -914,22 +1123,26 @@ public class Graph {
 
     public void showLargeGrids(boolean b) {
         mStyles.showLargeGrids = b;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
     public void showGrids(boolean b) {
         mStyles.showGrids = b;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
 
     public void showVertical(boolean b) {
         mStyles.showVertical = b;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
     public void showHorizontal(boolean b) {
         mStyles.showHorizontal = b;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -954,6 +1167,7 @@ public class Graph {
         mStyles.yLabelPosition = position;
         if (changeLabelSize || (position != YLabelPosition.NONE && labelWidth == NaN))
             calculateLabelWidth();
+        gridChanged();
         if (autoInvalidate) {
             layoutRequired();
             invalidate();
@@ -965,6 +1179,7 @@ public class Graph {
         mStyles.xLabelPosition = position;
         if (changeLabelSize || (position != XLabelPosition.NONE && labelHeight == NaN))
             calculateLabelHeight();
+        gridChanged();
         if (autoInvalidate) {
             layoutRequired();
             invalidate();
@@ -976,6 +1191,7 @@ public class Graph {
             yMin = Double.NaN;
             yMax = Double.NaN;
         }
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -989,11 +1205,13 @@ public class Graph {
             yMax = Double.NaN;
             setBounds(xMin, yMin, xMax, yMax,true, false);
         }
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
     public void setGridXInterval(double sec, boolean keepBounds) {
         gridXInterval = sec;
+        freeXBounds = false;
         if (keepBounds) {
             xGridNumbers = NaN;
         } else {
@@ -1001,12 +1219,14 @@ public class Graph {
             xMax = Double.NaN;
             setBounds(xMin, yMin, xMax, yMax, true, false);
         }
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
 
     public void setGridsPerLargeGrid(int i) {
         gridsPerLargeGrid = i;
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -1023,6 +1243,7 @@ public class Graph {
             xGridNumbers = NaN;
         }
 
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -1039,6 +1260,7 @@ public class Graph {
             xGridNumbers = NaN;
         }
 
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -1055,6 +1277,7 @@ public class Graph {
             yGridNumbers = NaN;
         }
 
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -1071,6 +1294,7 @@ public class Graph {
             yGridNumbers = NaN;
         }
 
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -1088,14 +1312,72 @@ public class Graph {
         if (changeLabelSize) {
             layoutRequired();
         }
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
 
+    /**
+     * Show an x range without any layout pass, for zooming and panning at the frame rate
+     * The grids keep their number and size, the x interval of a grid follows the range,
+     * the configured interval and bounds come back with resetViewport
+     * The range is kept within the data, bounds are not snapped to the grid nor synced to the data
+     *
+     * @param xMin x min
+     * @param xMax x max
+     * @see #resetViewport()
+     * @see ECGView#setGesturesEnabled(boolean)
+     */
+    public void setViewport(double xMin, double xMax) {
+        if (xGridNumbers == NaN || !(xMax > xMin) || Double.isInfinite(xMax - xMin)) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        final double dataXMin = mHost.getDataXMin();
+        final double dataXMax = mHost.getDataXMax();
+        if (dataXMax > dataXMin) {
+            // Not wider than the data, and within it
+            final double span = Math.min(xMax - xMin, dataXMax - dataXMin);
+            xMin = Math.max(dataXMin, Math.min(xMin, dataXMax - span));
+            xMax = xMin + span;
+        }
+        if (!freeXBounds) {
+            savedXMin = this.xMin;
+            savedXMax = this.xMax;
+            savedSyncBounds = syncBounds;
+        }
+        syncBounds = false;
+        freeXBounds = true;
+        this.xMin = xMin;
+        this.xMax = xMax;
+        viewportXInterval = (xMax - xMin) / xGridNumbers;
+        invalidate();
+    }
+
+    /**
+     * Go back to the bounds and grid interval from before the viewport was set
+     * Called when gestures are disabled and when the data is replaced
+     *
+     * @see #setViewport(double, double)
+     */
+    public void resetViewport() {
+        if (!freeXBounds)
+            return;
+        freeXBounds = false;
+        syncBounds = savedSyncBounds;
+        xMin = savedXMin;
+        xMax = savedXMax;
+        gridChanged();
+        invalidate();
+    }
+
+    public boolean hasViewport() { return freeXBounds; }
+
     public void setXFormat(DecimalFormat format, boolean changeLabelSize) {
         xFormat = format;
         if (changeLabelSize)
             layoutRequired();
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -1104,6 +1386,7 @@ public class Graph {
         yFormat = format;
         if (changeLabelSize)
             layoutRequired();
+        gridChanged();
         if (autoInvalidate)
             invalidate();
     }
@@ -1118,5 +1401,6 @@ public class Graph {
 
     public void enableAutoBounds(boolean b) {
         syncBounds = b;
+        freeXBounds = false;
     }
 }
@@ -0,0 +1,39 @@
+package com.rainbowpuppeteer.ecgview;
+
+/**
+ * Graph Host
+ * What the graph and the data series need from the view rendering them
+ *
+ * @author RainbowPuppeteer
+ * @see ECGView
+ * @see ECGSurfaceView
+ */
+interface GraphHost {
+
+    /**
+     * Data bounds, used when the graph bounds are synced to the data
+     *
+     * @see DataSeries#getXMax()
+     */
+    double getDataXMax();
+    double getDataXMin();
+    double getDataYMax();
+    double getDataYMin();
+
+    /**
+     * Lay the graph out again before the next frame
+     */
+    void requestLayout();
+
+    /**
+     * Redraw everything on the next frame, safe to call from any thread
+     */
+    void requestFrame();
+
+    /**
+     * The data series was cleared or replaced, a viewport over the old data is reset
+     *
+     * @see Graph#resetViewport()
+     */
+    void dataReplaced();
+}
@@ -0,0 +1,135 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+/**
+ * Grid Layer
+ * Cached drawing of the static part of the graph (grids and labels)
+ * Recorded once and composited on every frame until invalidated
+ *
+ * Uses a RenderNode on hardware accelerated canvases (API 29+)
+ * and a Bitmap otherwise
+ *
+ * @author RainbowPuppeteer
+ * @see Graph#draw(Canvas, int, int, int, int)
+ */
+final class GridLayer {
+
+    private RenderNode mNode;
+
+    private Bitmap mBitmap;
+    private Canvas mBitmapCanvas;
+
+    /**
+     * Is the recorded content up to date
+     */
+    private boolean mValid;
+
+    /**
+     * Is the content recorded in mNode, or in mBitmap
+     */
+    private boolean mHardware;
+
+    /**
+     * Size of the recorded content
+     */
+    private int mWidth, mHeight;
+
+    /**
+     * Re-record on the next frame
+     */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Can the recorded content be drawn to the canvas as is
+     *
+     * @param target canvas to draw to
+     * @param width layer width
+     * @param height layer height
+     * @return up to date or not
+     */
+    boolean isValid(Canvas target, int width, int height) {
+        return mValid && mWidth == width && mHeight == height && mHardware == useRenderNode(target);
+    }
+
+    /**
+     * Start recording, the returned canvas origin is the layer top left
+     *
+     * @param target canvas the layer will be drawn to
+     * @param width layer width
+     * @param height layer height
+     * @return canvas to record to
+     */
+    Canvas beginRecording(Canvas target, int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mHardware = useRenderNode(target);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && mHardware) {
+            releaseBitmap();
+            if (mNode == null)
+                mNode = new RenderNode("ECGView.Grid");
+            mNode.setPosition(0, 0, width, height);
+            return mNode.beginRecording(width, height);
+        }
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            releaseBitmap();
+            mBitmap = Bitmap.createBitmap(Math.max(1, width), Math.max(1, height), Bitmap.Config.ARGB_8888);
+            mBitmapCanvas = new Canvas(mBitmap);
+        } else {
+            mBitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return mBitmapCanvas;
+    }
+
+    void endRecording() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && mHardware)
+            mNode.endRecording();
+        mValid = true;
+    }
+
+    /**
+     * Composite the recorded content
+     *
+     * @param target canvas
+     * @param left layer left on the canvas
+     * @param top layer top on the canvas
+     */
+    void draw(Canvas target, float left, float top) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && mHardware) {
+            final int save = target.save();
+            target.translate(left, top);
+            target.drawRenderNode(mNode);
+            target.restoreToCount(save);
+        } else {
+            target.drawBitmap(mBitmap, left, top, null);
+        }
+    }
+
+    /**
+     * Free the recorded content
+     */
+    void release() {
+        releaseBitmap();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && mNode != null)
+            mNode.discardDisplayList();
+        mValid = false;
+    }
+
+    private void releaseBitmap() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+            mBitmapCanvas = null;
+        }
+    }
+
+    private static boolean useRenderNode(Canvas target) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && target.isHardwareAccelerated();
+    }
+}
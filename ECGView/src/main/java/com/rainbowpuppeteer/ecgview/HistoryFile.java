@@ -0,0 +1,171 @@
+package com.rainbowpuppeteer.ecgview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * History File
+ * Ring of primitive samples in a memory-mapped file
+ * Holds the samples evicted from the SampleBuffer, so hours of history
+ * can be scrolled back to without keeping them on the Java heap
+ *
+ * Each record is the x value (double) followed by one float per channel.
+ * Samples are read straight from the mapping, nothing is copied to the heap
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#enableHistory(File, int)
+ */
+final class HistoryFile implements SampleView {
+
+    private final File mFile;
+    private final RandomAccessFile mAccess;
+    private final MappedByteBuffer mBuffer;
+
+    private final int mChannels;
+
+    /**
+     * Bytes per sample
+     */
+    private final int mRecordSize;
+
+    /**
+     * Maximum number of samples, the oldest are overwritten
+     */
+    private final int mCapacity;
+
+    /**
+     * Record index of the oldest sample
+     */
+    private int mHead;
+
+    private int mSize;
+
+    /**
+     * Constructor.
+     * The file is created or truncated
+     *
+     * @param file backing file
+     * @param capacity maximum number of samples
+     * @param channels number of y values per sample
+     * @throws IOException if the file cannot be mapped
+     */
+    HistoryFile(File file, int capacity, int channels) throws IOException {
+        mRecordSize = 8 + 4 * channels;
+        if ((long) mRecordSize * capacity > Integer.MAX_VALUE)
+            throw new IOException("History of " + capacity + " samples does not fit in one mapping");
+        mFile = file;
+        mChannels = channels;
+        mCapacity = capacity;
+        mAccess = new RandomAccessFile(file, "rw");
+        try {
+            mAccess.setLength(0);
+            mBuffer = mAccess.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) mRecordSize * capacity);
+        } catch (IOException e) {
+            mAccess.close();
+            throw e;
+        }
+        mBuffer.order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public int channels() {
+        return mChannels;
+    }
+
+    int capacity() {
+        return mCapacity;
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Byte position of a sample
+     *
+     * @param i index, 0 = oldest
+     * @return position in the mapping
+     */
+    private int position(int i) {
+        int r = mHead + i;
+        if (r >= mCapacity)
+            r -= mCapacity;
+        return r * mRecordSize;
+    }
+
+    @Override
+    public double getX(int i) {
+        return mBuffer.getDouble(position(i));
+    }
+
+    @Override
+    public float getY(int channel, int i) {
+        return mBuffer.getFloat(position(i) + 8 + 4 * channel);
+    }
+
+    @Override
+    public int floorIndex(double x) {
+        int lo = 0, hi = mSize - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (getX(mid) <= x)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return hi;
+    }
+
+    /**
+     * Append the oldest samples of a buffer, before they are evicted from it
+     * Overwrites the oldest samples of the history when full
+     *
+     * @param samples buffer
+     * @param n number of samples from its oldest one
+     */
+    void append(SampleBuffer samples, int n) {
+        for (int i = 0; i < n; i++) {
+            final int p;
+            if (mSize == mCapacity) {
+                p = position(0);
+                mHead = mHead + 1 == mCapacity ? 0 : mHead + 1;
+            } else {
+                p = position(mSize);
+                mSize++;
+            }
+            mBuffer.putDouble(p, samples.getX(i));
+            for (int c = 0; c < mChannels; c++)
+                mBuffer.putFloat(p + 8 + 4 * c, samples.getY(c, i));
+        }
+    }
+
+    /**
+     * Drop every sample
+     */
+    void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Close and delete the file
+     * The mapping is released by the garbage collector
+     */
+    void delete() {
+        try {
+            mAccess.close();
+        } catch (IOException ignored) {
+        }
+        if (!mFile.delete())
+            mFile.deleteOnExit();
+    }
+}
@@ -0,0 +1,56 @@
+package com.rainbowpuppeteer.ecgview;
+
+/**
+ * Joined Sample View
+ * Two sample views read as one, every sample of the older one
+ * coming before every sample of the newer one
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#setScrollBack(double)
+ */
+final class JoinedSampleView implements SampleView {
+
+    private SampleView mOlder;
+    private SampleView mNewer;
+
+    /**
+     * Set the joined views
+     *
+     * @param older older samples
+     * @param newer newer samples, same number of channels
+     * @return this
+     */
+    JoinedSampleView join(SampleView older, SampleView newer) {
+        mOlder = older;
+        mNewer = newer;
+        return this;
+    }
+
+    @Override
+    public int size() {
+        return mOlder.size() + mNewer.size();
+    }
+
+    @Override
+    public int channels() {
+        return mNewer.channels();
+    }
+
+    @Override
+    public double getX(int i) {
+        final int n = mOlder.size();
+        return i < n ? mOlder.getX(i) : mNewer.getX(i - n);
+    }
+
+    @Override
+    public float getY(int channel, int i) {
+        final int n = mOlder.size();
+        return i < n ? mOlder.getY(channel, i) : mNewer.getY(channel, i - n);
+    }
+
+    @Override
+    public int floorIndex(double x) {
+        final int newer = mNewer.floorIndex(x);
+        return newer >= 0 ? mOlder.size() + newer : mOlder.floorIndex(x);
+    }
+}
@@ -0,0 +1,113 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+/**
+ * Label Cache
+ * Formatted and measured axis labels, indexed by grid index
+ * Rebuilt only when the bounds, interval, format or text size change
+ *
+ * @author RainbowPuppeteer
+ * @see Graph
+ */
+final class LabelCache {
+
+    /**
+     * Labels by grid index, null for grids without label
+     */
+    private String[] mLabels = new String[0];
+
+    /**
+     * Offset from the vertical center to the baseline, by grid index
+     */
+    private float[] mCenterOffsets = new float[0];
+
+    /**
+     * Key of the cached labels
+     */
+    private double mStart = Double.NaN;
+    private double mStep;
+    private int mCount;
+    private int mEvery;
+    private DecimalFormat mFormat;
+    private float mTextSize;
+
+    /**
+     * Reused measuring rect
+     */
+    private final Rect mBounds = new Rect();
+
+    /**
+     * Are the cached labels built for this key
+     *
+     * @param start value of grid 0
+     * @param step value between two grids
+     * @param count number of grids
+     * @param every grids per label
+     * @param format label format
+     * @param textSize label text size
+     * @return up to date or not
+     */
+    boolean isValid(double start, double step, int count, int every, DecimalFormat format, float textSize) {
+        return start == mStart && step == mStep && count == mCount && every == mEvery
+                && format == mFormat && textSize == mTextSize;
+    }
+
+    /**
+     * Drop the cached labels and set the key they are built for
+     *
+     * @see #isValid(double, double, int, int, DecimalFormat, float)
+     */
+    void reset(double start, double step, int count, int every, DecimalFormat format, float textSize) {
+        mStart = start;
+        mStep = step;
+        mCount = count;
+        mEvery = every;
+        mFormat = format;
+        mTextSize = textSize;
+        if (mLabels.length < count + 1) {
+            mLabels = new String[count + 1];
+            mCenterOffsets = new float[count + 1];
+        } else {
+            Arrays.fill(mLabels, null);
+        }
+    }
+
+    /**
+     * Format and measure the label of a grid
+     *
+     * @param i grid index
+     * @param value label value
+     * @param paint label paint
+     */
+    void set(int i, double value, Paint paint) {
+        final String label = mFormat.format(value);
+        paint.getTextBounds(label, 0, label.length(), mBounds);
+        mLabels[i] = label;
+        mCenterOffsets[i] = -(mBounds.top + mBounds.bottom) / 2f;
+    }
+
+    /**
+     * Get the label of a grid
+     *
+     * @param i grid index
+     * @return label
+     */
+    String get(int i) {
+        return mLabels[i];
+    }
+
+    /**
+     * Get the offset to add to a vertical center to draw the label centered
+     *
+     * @param i grid index
+     * @return baseline offset
+     */
+    float getCenterOffset(int i) {
+        return mCenterOffsets[i];
+    }
+}
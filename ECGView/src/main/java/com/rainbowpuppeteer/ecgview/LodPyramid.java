@@ -0,0 +1,201 @@
+package com.rainbowpuppeteer.ecgview;
+
+import java.util.Arrays;
+
+/**
+ * Level Of Detail Pyramid
+ * Min and max y values of the static graph over buckets of consecutive samples,
+ * the bucket size doubling from one level to the next
+ *
+ * A zoomed out graph is drawn from the level whose buckets match its samples per pixel,
+ * so the cost of a frame follows the width instead of the number of samples
+ *
+ * Samples added after the last ones are summarized incrementally,
+ * only the last bucket of each level is computed again.
+ * Sources read from a file are summarized a bounded number of samples at a time
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#draw(Canvas, int, int, int, int, double, double, double, double)
+ */
+final class LodPyramid {
+
+    /**
+     * Buckets of level 0 hold 1 << BASE_SHIFT samples
+     * Finer levels would not draw faster than the samples themselves
+     */
+    static final int BASE_SHIFT = 4;
+
+    /**
+     * Min and max by level, channel, then bucket
+     */
+    private float[][][] mMin = new float[0][][];
+    private float[][][] mMax = new float[0][][];
+
+    /**
+     * Number of buckets by level
+     */
+    private int[] mBuckets = new int[0];
+
+    private int mLevels;
+    private int mChannels;
+
+    /**
+     * Number of samples summarized
+     */
+    private int mSize;
+
+    /**
+     * Forget every sample
+     */
+    void clear() {
+        mLevels = 0;
+        mSize = 0;
+    }
+
+    int levels() {
+        return mLevels;
+    }
+
+    /**
+     * Number of samples summarized, the levels only cover the samples before it
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Number of samples per bucket of a level, as a shift
+     */
+    static int shift(int level) {
+        return BASE_SHIFT + level;
+    }
+
+    int buckets(int level) {
+        return mBuckets[level];
+    }
+
+    float min(int level, int channel, int bucket) {
+        return mMin[level][channel][bucket];
+    }
+
+    float max(int level, int channel, int bucket) {
+        return mMax[level][channel][bucket];
+    }
+
+    /**
+     * Coarsest level whose buckets hold at most samplesPerBucket samples
+     *
+     * @param samplesPerBucket wanted bucket size
+     * @return level, -1 if even level 0 is too coarse
+     */
+    int levelFor(double samplesPerBucket) {
+        int level = -1;
+        while (level + 1 < mLevels && (1 << shift(level + 1)) <= samplesPerBucket)
+            level++;
+        return level;
+    }
+
+    /**
+     * Summarize the samples added since the last update
+     * The samples must only have grown, indices of the summarized samples unchanged
+     *
+     * @param samples samples, from index 0
+     */
+    void update(SampleView samples) {
+        update(samples, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Summarize at most limit of the samples added since the last update
+     * The result is the same as summarizing them all at once
+     *
+     * @param samples samples, from index 0
+     * @param limit maximum number of samples to read
+     * @return true if every sample is summarized
+     */
+    boolean update(SampleView samples, int limit) {
+        final int size = samples.size();
+        if (size < mSize || samples.channels() != mChannels) {
+            mChannels = samples.channels();
+            clear();
+        }
+        final int n = (int) Math.min(size, (long) mSize + limit);
+        if (n == 0 || n == mSize)
+            return n == size;
+
+        // Level 0 from the samples, from the bucket holding the first new sample
+        // Buckets in the outer loop, so every channel of a page is read while it is cached
+        int from = mSize >> BASE_SHIFT;
+        int count = (n + (1 << BASE_SHIFT) - 1) >> BASE_SHIFT;
+        ensure(0, count);
+        for (int b = from; b < count; b++) {
+            final int end = Math.min(n, (b + 1) << BASE_SHIFT);
+            for (int c = 0; c < mChannels; c++) {
+                float lo = samples.getY(c, b << BASE_SHIFT);
+                float hi = lo;
+                for (int i = (b << BASE_SHIFT) + 1; i < end; i++) {
+                    final float y = samples.getY(c, i);
+                    if (y < lo)
+                        lo = y;
+                    else if (y > hi)
+                        hi = y;
+                }
+                mMin[0][c][b] = lo;
+                mMax[0][c][b] = hi;
+            }
+        }
+        mBuckets[0] = count;
+
+        // Each level from pairs of buckets of the one below, until a single bucket
+        int level = 0;
+        while (count > 1) {
+            from >>= 1;
+            final int below = count;
+            count = (count + 1) >> 1;
+            ensure(++level, count);
+            for (int c = 0; c < mChannels; c++) {
+                final float[] min = mMin[level][c], max = mMax[level][c];
+                final float[] minBelow = mMin[level - 1][c], maxBelow = mMax[level - 1][c];
+                for (int b = from; b < count; b++) {
+                    final int i = b << 1;
+                    if (i + 1 < below) {
+                        min[b] = Math.min(minBelow[i], minBelow[i + 1]);
+                        max[b] = Math.max(maxBelow[i], maxBelow[i + 1]);
+                    } else {
+                        min[b] = minBelow[i];
+                        max[b] = maxBelow[i];
+                    }
+                }
+            }
+            mBuckets[level] = count;
+        }
+        mLevels = level + 1;
+        mSize = n;
+        return n == size;
+    }
+
+    /**
+     * Make room for a level of count buckets
+     * Buckets before the first updated one are kept
+     */
+    private void ensure(int level, int count) {
+        if (level >= mMin.length) {
+            final int length = Math.max(level + 1, mMin.length * 2);
+            mMin = Arrays.copyOf(mMin, length);
+            mMax = Arrays.copyOf(mMax, length);
+            mBuckets = Arrays.copyOf(mBuckets, length);
+        }
+        final float[][] min = mMin[level];
+        final float[][] max = mMax[level];
+        final boolean keep = min != null && min.length == mChannels;
+        if (keep && min[0].length >= count)
+            return;
+        final int capacity = keep ? Math.max(count, min[0].length * 2) : count;
+        mMin[level] = new float[mChannels][];
+        mMax[level] = new float[mChannels][];
+        for (int c = 0; c < mChannels; c++) {
+            mMin[level][c] = keep ? Arrays.copyOf(min[c], capacity) : new float[capacity];
+            mMax[level][c] = keep ? Arrays.copyOf(max[c], capacity) : new float[capacity];
+        }
+    }
+}
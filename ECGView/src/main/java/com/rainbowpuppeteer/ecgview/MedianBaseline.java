@@ -0,0 +1,110 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Median Baseline
+ * Removes the baseline wander by subtracting the running median of a window
+ * The median follows the baseline but not the QRS complexes, shorter than the window
+ *
+ * The output is the sample at the middle of the window minus the median,
+ * so the signal is delayed by half a window
+ * Two stages of 200 ms then 600 ms also remove the P and T waves from the estimate
+ *
+ * The window is kept sorted, each sample replaces the oldest one
+ * and is moved to its rank by shifting its neighbours
+ *
+ * @author RainbowPuppeteer
+ * @see SampleFilter
+ */
+public final class MedianBaseline extends SampleFilter {
+
+    private static final String TAG = "ECGView.MedianBaseline";
+
+    private final int mWindow;
+
+    /**
+     * Window by channel, in arrival order and sorted
+     */
+    private float[][] mRing = new float[0][];
+    private float[][] mSorted = new float[0][];
+
+    /**
+     * Index of the oldest sample of each ring
+     */
+    private int[] mPos = new int[0];
+
+    /**
+     * Has the channel got its first sample
+     */
+    private boolean[] mStarted = new boolean[0];
+
+    /**
+     * Constructor
+     *
+     * @param window window in samples, e.g. 0.2 * sample rate, rounded up to an odd number
+     */
+    public MedianBaseline(int window) {
+        if (window <= 0) {
+            Log.e(TAG, "Illegal argument");
+            window = 1;
+        }
+        mWindow = window | 1;
+    }
+
+    public int getDelay() {
+        return mWindow / 2;
+    }
+
+    @Override
+    public void reset(int channels) {
+        mRing = new float[channels][mWindow];
+        mSorted = new float[channels][mWindow];
+        mPos = new int[channels];
+        mStarted = new boolean[channels];
+    }
+
+    @Override
+    public void process(int channel, float[] y, int offset, int length) {
+        final int n = mWindow;
+        final float[] ring = mRing[channel];
+        final float[] sorted = mSorted[channel];
+        int pos = mPos[channel];
+        if (!mStarted[channel] && length > 0) {
+            // Start from a flat baseline at the first sample
+            Arrays.fill(ring, y[offset]);
+            Arrays.fill(sorted, y[offset]);
+            mStarted[channel] = true;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            final float x = y[i];
+            final float old = ring[pos];
+            ring[pos] = x;
+            if (++pos == n)
+                pos = 0;
+
+            int r = Arrays.binarySearch(sorted, old);
+            if (x > old) {
+                while (r + 1 < n && sorted[r + 1] < x) {
+                    sorted[r] = sorted[r + 1];
+                    r++;
+                }
+            } else {
+                while (r > 0 && sorted[r - 1] > x) {
+                    sorted[r] = sorted[r - 1];
+                    r--;
+                }
+            }
+            sorted[r] = x;
+
+            // pos is the oldest sample, the middle is half a window after it
+            int middle = pos + n / 2;
+            if (middle >= n)
+                middle -= n;
+            y[i] = ring[middle] - sorted[n / 2];
+        }
+        mPos[channel] = pos;
+    }
+}
@@ -0,0 +1,232 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Recording Reader
+ * Reads back the files written by DataSeries#startRecording, block by block
+ * One block is decoded at a time, into arrays owned by the caller
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#startRecording(File, float, float)
+ */
+public final class RecordingReader implements Closeable {
+
+    private static final String TAG = "ECGView.RecordingReader";
+
+    private final FileChannel mChannel;
+
+    private final int mChannels;
+    private final int mBlockFrames;
+    private final float mGain;
+    private final float mOffset;
+
+    /**
+     * Block being decoded
+     */
+    private ByteBuffer mBlock;
+
+    /**
+     * Delta x of the last block read, NaN if not constant
+     * in which case mDeltas holds the delta x of its frames from the second one
+     */
+    private double mBlockDx;
+    private final float[] mDeltas;
+
+    /**
+     * Constructor.
+     * Reads the file header
+     *
+     * @param file recording file
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public RecordingReader(File file) throws IOException {
+        mChannel = new FileInputStream(file).getChannel();
+        try {
+            final ByteBuffer header = read(RecordingWriter.FILE_HEADER_SIZE);
+            if (header == null || header.getInt() != RecordingWriter.FILE_MAGIC)
+                throw new IOException("Not a recording: " + file);
+            if (header.getShort() != RecordingWriter.VERSION)
+                throw new IOException("Unsupported recording version: " + file);
+            mChannels = header.getShort();
+            mBlockFrames = header.getInt();
+            mGain = header.getFloat();
+            mOffset = header.getFloat();
+            if (mChannels <= 0 || mBlockFrames <= 0)
+                throw new IOException("Corrupted recording header: " + file);
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+        mDeltas = new float[mBlockFrames];
+    }
+
+    public int getChannelCount() { return mChannels; }
+
+    /**
+     * Maximum number of frames in a block, the size of the arrays passed to readBlock
+     *
+     * @see #readBlock(double[], float[])
+     */
+    public int getBlockFrames() { return mBlockFrames; }
+
+    public float getGain() { return mGain; }
+
+    public float getOffset() { return mOffset; }
+
+    /**
+     * Read n bytes into the block buffer
+     *
+     * @param n number of bytes
+     * @return the buffer, null at the end of the file
+     * @throws IOException if the file ends within the n bytes
+     */
+    private ByteBuffer read(int n) throws IOException {
+        if (mBlock == null || mBlock.capacity() < n)
+            mBlock = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer buffer = mBlock;
+        buffer.clear().limit(n);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) {
+                if (buffer.position() == 0)
+                    return null;
+                throw new EOFException("Truncated recording");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode the next block
+     * Frames are interleaved, channel c of frame f is at f * channels + c
+     *
+     * @param x receives the x value of each frame, at least getBlockFrames long
+     * @param frames receives the y values, at least getBlockFrames * getChannelCount long
+     * @return number of frames read, -1 at the end of the file
+     * @throws IOException if the file cannot be read or is corrupted
+     */
+    public int readBlock(double[] x, float[] frames) throws IOException {
+        if (x.length < mBlockFrames || frames.length < mBlockFrames * mChannels) {
+            Log.e(TAG, "Illegal argument");
+            return -1;
+        }
+        ByteBuffer buffer = read(RecordingWriter.BLOCK_HEADER_SIZE);
+        if (buffer == null)
+            return -1;
+        if (buffer.getInt() != RecordingWriter.BLOCK_MAGIC)
+            throw new IOException("Corrupted recording block");
+        final int n = buffer.getInt();
+        final int payload = buffer.getInt();
+        final double x0 = buffer.getDouble();
+        final double dx = buffer.getDouble();
+        if (n <= 0 || n > mBlockFrames || payload < 0)
+            throw new IOException("Corrupted recording block");
+
+        buffer = read(payload);
+        if (buffer == null)
+            throw new EOFException("Truncated recording");
+        try {
+            x[0] = x0;
+            mBlockDx = dx;
+            if (Double.isNaN(dx)) {
+                for (int i = 1; i < n; i++) {
+                    mDeltas[i] = buffer.getFloat();
+                    x[i] = x[i - 1] + mDeltas[i];
+                }
+            } else {
+                for (int i = 1; i < n; i++)
+                    x[i] = x0 + i * dx;
+            }
+            for (int c = 0; c < mChannels; c++) {
+                int count = 0;
+                for (int i = c; i < n * mChannels; i += mChannels) {
+                    final int zigzag = getVarint(buffer);
+                    count += zigzag >>> 1 ^ -(zigzag & 1);
+                    frames[i] = mOffset + count * mGain;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Payload shorter than its frames
+            throw new IOException("Corrupted recording block");
+        }
+        return n;
+    }
+
+    /**
+     * Read an unsigned varint, 7 bits per byte, low bits first
+     */
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    /**
+     * Load the rest of the recording into a series
+     * A static series is cleared and filled with the recorded points, call it on the UI thread.
+     * A dynamic series gets the points appended, call it from the acquisition thread,
+     * with the BLOCK overflow policy to keep every point
+     *
+     * @param series destination, with as many channels as the recording
+     * @param invalidate invalidate or not
+     * @return number of frames loaded
+     * @throws IOException if the file cannot be read or is corrupted
+     * @see DataSeries#setChannelCount(int)
+     */
+    public long readInto(DataSeries series, boolean invalidate) throws IOException {
+        if (series.getChannelCount() != mChannels) {
+            Log.e(TAG, "Illegal argument");
+            return 0;
+        }
+        final double[] x = new double[mBlockFrames];
+        final float[] frames = new float[mBlockFrames * mChannels];
+        final boolean isStatic = series.getGraphType() == DataSeries.STATIC_GRAPH;
+        if (isStatic)
+            series.clear();
+        long total = 0;
+        double lastX = 0;
+        int n;
+        while ((n = readBlock(x, frames)) > 0) {
+            total += n;
+            if (isStatic) {
+                series.addStaticFrames(x, 0, frames, 0, n, invalidate);
+                continue;
+            }
+            // The first frame follows the last block, then runs of frames sharing the same delta x
+            series.appendFrames(frames, 0, 1, x[0] - lastX, invalidate);
+            if (!Double.isNaN(mBlockDx)) {
+                series.appendFrames(frames, mChannels, n - 1, mBlockDx, invalidate);
+            } else {
+                int start = 1;
+                while (start < n) {
+                    int end = start + 1;
+                    while (end < n && mDeltas[end] == mDeltas[start])
+                        end++;
+                    series.appendFrames(frames, start * mChannels, end - start, mDeltas[start], invalidate);
+                    start = end;
+                }
+            }
+            lastX = x[n - 1];
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
@@ -0,0 +1,343 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Recording Writer
+ * Streams the samples drained into a DataSeries to a compact binary file
+ *
+ * The draining thread only copies the samples into pooled blocks,
+ * a writer thread quantizes and encodes the full blocks and writes them through a FileChannel.
+ * If the disk falls behind and every block is in use, samples are dropped
+ * The writer thread is a daemon, the recording must still be closed to write the last block
+ *
+ * File format, little endian:
+ * header: magic "ECGR", version (short), channels (short), frames per block (int),
+ *         gain (float), offset (float), 12 reserved bytes
+ * blocks: magic "BLK1", frames (int), payload bytes (int), x of the first frame (double),
+ *         delta x (double, NaN if not constant) then the payload:
+ *         if delta x is NaN, frames - 1 delta x values (float),
+ *         then for each channel, for each frame, the difference to the previous count
+ *         of the channel as a zigzag varint. Counts are int16 ADC counts,
+ *         value = offset + count * gain, and start from 0 in each block
+ *
+ * Samples the queue skips while they are drained end the block, the next block starts
+ * after their delta x values. Samples dropped before they reach the queue, or overwritten
+ * before a drain starts, leave no gap: their delta x values are lost with them
+ *
+ * @author RainbowPuppeteer
+ * @see RecordingReader
+ * @see DataSeries#startRecording(File, float, float)
+ */
+final class RecordingWriter implements Runnable {
+
+    private static final String TAG = "ECGView.RecordingWriter";
+
+    static final int FILE_MAGIC = 0x52474345; // "ECGR"
+    static final int BLOCK_MAGIC = 0x314B4C42; // "BLK1"
+    static final short VERSION = 1;
+    static final int FILE_HEADER_SIZE = 32;
+    static final int BLOCK_HEADER_SIZE = 28;
+
+    /**
+     * Frames per block
+     */
+    static final int BLOCK_FRAMES = 4096;
+
+    /**
+     * Number of pooled blocks
+     */
+    private static final int BLOCKS = 8;
+
+    /**
+     * Raw samples of a block, filled on the draining thread, encoded on the writer thread
+     */
+    private static final class Block {
+
+        final double[] dx;
+        final float[][] y;
+
+        /**
+         * x value of the first frame
+         */
+        double x0;
+
+        /**
+         * Number of frames
+         */
+        int n;
+
+        Block(int frames, int channels) {
+            dx = new double[frames];
+            y = new float[channels][frames];
+        }
+    }
+
+    /**
+     * Tells the writer thread to close the file
+     */
+    private static final Block END = new Block(0, 0);
+
+    private final FileChannel mChannel;
+    private final Thread mThread;
+
+    private final ArrayBlockingQueue<Block> mFree;
+    private final ArrayBlockingQueue<Block> mFull;
+
+    private final int mChannels;
+    private final float mGain;
+    private final float mOffset;
+
+    /**
+     * DRAINING THREAD ONLY
+     * Block being filled, null if none was free
+     */
+    private Block mStage;
+
+    /**
+     * DRAINING THREAD ONLY
+     * Absolute x value of the newest frame written
+     */
+    private double mLastX;
+
+    /**
+     * WRITER THREAD ONLY
+     * Encoded block
+     */
+    private final ByteBuffer mEncoded;
+
+    private volatile long mWritten;
+    private volatile long mDropped;
+
+    /**
+     * Constructor.
+     * The file is created or truncated and the header written
+     *
+     * @param file destination
+     * @param channels number of channels
+     * @param gain value of one count
+     * @param offset value of count 0
+     * @throws IOException if the file cannot be written
+     */
+    RecordingWriter(File file, int channels, float gain, float offset) throws IOException {
+        mChannels = channels;
+        mGain = gain;
+        mOffset = offset;
+        mEncoded = ByteBuffer.allocateDirect(BLOCK_HEADER_SIZE + BLOCK_FRAMES * (4 + 3 * channels))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        mFree = new ArrayBlockingQueue<>(BLOCKS);
+        mFull = new ArrayBlockingQueue<>(BLOCKS + 1);
+        for (int i = 0; i < BLOCKS; i++)
+            mFree.add(new Block(BLOCK_FRAMES, channels));
+
+        mChannel = new FileOutputStream(file).getChannel();
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FILE_MAGIC)
+                .putShort(VERSION)
+                .putShort((short) channels)
+                .putInt(BLOCK_FRAMES)
+                .putFloat(gain)
+                .putFloat(offset);
+        header.clear();
+        try {
+            while (header.hasRemaining())
+                mChannel.write(header);
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+
+        mThread = new Thread(this, TAG);
+        // Never keeps the process alive, e.g. if the view is dropped while recording
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * DRAINING THREAD ONLY
+     * Record samples whose x values are deltas
+     * The samples are only copied, they are encoded on the writer thread
+     *
+     * @param dx delta x values
+     * @param y y values by channel
+     * @param offset index of the first sample
+     * @param length number of samples
+     * @see SampleBuffer#addDeltas(double[], float[][], int, int)
+     */
+    void write(double[] dx, float[][] y, int offset, int length) {
+        while (length > 0) {
+            if (mStage == null) {
+                mStage = mFree.poll();
+                if (mStage != null) {
+                    mStage.n = 0;
+                    mStage.x0 = mLastX + dx[offset];
+                }
+            }
+            final int n = mStage == null ? length : Math.min(length, BLOCK_FRAMES - mStage.n);
+            if (mStage == null) {
+                if (mDropped == 0)
+                    Log.w(TAG, "The disk is too slow, dropping samples");
+                mDropped += n;
+            } else {
+                System.arraycopy(dx, offset, mStage.dx, mStage.n, n);
+                for (int c = 0; c < mChannels; c++)
+                    System.arraycopy(y[c], offset, mStage.y[c], mStage.n, n);
+                mStage.n += n;
+                if (mStage.n == BLOCK_FRAMES)
+                    flush();
+            }
+            for (int i = offset; i < offset + n; i++)
+                mLastX += dx[i];
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * DRAINING THREAD ONLY
+     * Account for samples that were dropped instead of written
+     * The block being filled ends so the next one starts after the gap
+     *
+     * @param dx sum of the delta x values of the dropped samples
+     */
+    void skip(double dx) {
+        if (dx == 0)
+            return;
+        flush();
+        mLastX += dx;
+    }
+
+    /**
+     * DRAINING THREAD ONLY
+     * Hand the block being filled to the writer thread
+     */
+    private void flush() {
+        if (mStage == null)
+            return;
+        if (mStage.n > 0)
+            mFull.add(mStage);
+        else
+            mFree.add(mStage);
+        mStage = null;
+    }
+
+    /**
+     * WRITER THREAD ONLY
+     * Convert a value to an int16 count, clamped
+     */
+    private short quantize(float value) {
+        final float count = Math.round((value - mOffset) / mGain);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, count));
+    }
+
+    /**
+     * WRITER THREAD ONLY
+     * Encode a block into mEncoded
+     */
+    private void encode(Block block) {
+        final int n = block.n;
+        final double[] dx = block.dx;
+        boolean constant = true;
+        for (int i = 2; i < n && constant; i++)
+            constant = dx[i] == dx[1];
+
+        final ByteBuffer buffer = mEncoded;
+        buffer.clear();
+        buffer.position(BLOCK_HEADER_SIZE);
+        if (!constant) {
+            for (int i = 1; i < n; i++)
+                buffer.putFloat((float) dx[i]);
+        }
+        for (int c = 0; c < mChannels; c++) {
+            final float[] y = block.y[c];
+            int previous = 0;
+            for (int i = 0; i < n; i++) {
+                final int count = quantize(y[i]);
+                putVarint(buffer, (count - previous) << 1 ^ (count - previous) >> 31);
+                previous = count;
+            }
+        }
+        final int payload = buffer.position() - BLOCK_HEADER_SIZE;
+        buffer.putInt(0, BLOCK_MAGIC)
+                .putInt(4, n)
+                .putInt(8, payload)
+                .putDouble(12, block.x0)
+                .putDouble(20, constant ? (n > 1 ? dx[1] : 0) : Double.NaN);
+        buffer.flip();
+    }
+
+    /**
+     * Write an unsigned varint, 7 bits per byte, low bits first
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * DRAINING THREAD ONLY
+     * Write the last frames and close the file on the writer thread
+     */
+    void close() {
+        flush();
+        mFull.add(END);
+    }
+
+    /**
+     * Number of frames written to the file, and dropped because the disk was too slow
+     */
+    long getWrittenFrames() {
+        return mWritten;
+    }
+
+    long getDroppedFrames() {
+        return mDropped;
+    }
+
+    /**
+     * Writer thread
+     */
+    @Override
+    public void run() {
+        boolean failed = false;
+        try {
+            while (true) {
+                final Block block = mFull.take();
+                if (block == END)
+                    break;
+                if (!failed) {
+                    encode(block);
+                    try {
+                        while (mEncoded.hasRemaining())
+                            mChannel.write(mEncoded);
+                        mWritten += block.n;
+                    } catch (IOException e) {
+                        Log.e(TAG, "Recording failed: " + e.getMessage());
+                        failed = true;
+                    }
+                }
+                mFree.add(block);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot close the recording: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package com.rainbowpuppeteer.ecgview;
+
+/**
+ * Sample Buffer
+ * Fixed-capacity ring buffer of primitive samples
+ * Backs DataSeries instead of a list of boxed points
+ *
+ * x values are always ascending absolute times
+ * In dynamic mode they are accumulated from the appended delta times
+ * so the visible range can be found with a binary search
+ * With a sample interval they are not stored but computed from the sample index,
+ * and the visible range is found without a search
+ *
+ * Multi-channel samples are stored as one y lane per channel
+ * sharing the x values (struct of arrays)
+ * Lanes are floats, or 16-bit counts with a gain and a baseline when quantized
+ *
+ * The max and min y values of all channels are tracked with monotonic deques
+ * and read in O(1)
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries
+ */
+final class SampleBuffer implements SampleView {
+
+    /**
+     * x values, parallel to the y lanes, ascending
+     * null with a sample interval
+     */
+    private double[] mX;
+
+    /**
+     * Interval between samples, 0 if x values are stored
+     * Otherwise sample seq is at mX0 + seq * mDt
+     *
+     * @see #setSampleInterval(double)
+     */
+    private double mDt;
+    private double mX0;
+
+    /**
+     * Maximum number of samples
+     */
+    private int mCapacity;
+
+    /**
+     * y values by channel, each lane parallel to mX
+     * null when quantized
+     */
+    private float[][] mY;
+
+    /**
+     * Quantized y values by channel, y = baseline + count * gain
+     * null when not quantized
+     *
+     * @see #setQuantization(float, float)
+     */
+    private short[][] mQ;
+    private float mGain;
+    private float mBaseline;
+
+    /**
+     * Number of y lanes, either float or quantized
+     */
+    private int mChannels;
+
+    /**
+     * Physical index of the oldest sample
+     */
+    private int mHead;
+
+    /**
+     * Number of stored samples
+     */
+    private int mSize;
+
+    /**
+     * x value of the newest sample ever added
+     * Delta times are accumulated from it, kept when samples are evicted
+     */
+    private double mLastX;
+
+    /**
+     * Sequence number of the oldest sample
+     * Increases with every eviction, identifies samples in the deques
+     */
+    private long mHeadSeq;
+
+    /**
+     * Running max and min of the stored y values, over all channels
+     */
+    private final ExtremaDeque mMaxY;
+    private final ExtremaDeque mMinY;
+
+    /**
+     * Evicted samples are spilled to it, null if not kept
+     *
+     * @see #setHistory(HistoryFile)
+     */
+    private HistoryFile mHistory;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity maximum number of samples
+     * @param channels number of y lanes
+     */
+    SampleBuffer(int capacity, int channels) {
+        mX = new double[capacity];
+        mCapacity = capacity;
+        mY = new float[channels][capacity];
+        mChannels = channels;
+        mHead = 0;
+        mSize = 0;
+        mLastX = 0;
+        mHeadSeq = 0;
+        mMaxY = new ExtremaDeque(true, capacity);
+        mMinY = new ExtremaDeque(false, capacity);
+    }
+
+    /**
+     * Number of stored samples
+     *
+     * @return size
+     */
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Maximum number of samples
+     *
+     * @return capacity
+     */
+    int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Number of y lanes
+     *
+     * @return channel count
+     */
+    @Override
+    public int channels() {
+        return mChannels;
+    }
+
+    boolean isQuantized() {
+        return mQ != null;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    boolean isFull() {
+        return mSize == mCapacity;
+    }
+
+    /**
+     * Map a logical index (0 = oldest) to the physical array index
+     *
+     * @param i logical index
+     * @return physical index
+     */
+    private int physical(int i) {
+        int p = mHead + i;
+        return p >= mCapacity ? p - mCapacity : p;
+    }
+
+    /**
+     * Get the x value of a sample
+     *
+     * @param i logical index, 0 = oldest
+     * @return x value
+     */
+    @Override
+    public double getX(int i) {
+        if (mX == null)
+            return mX0 + (mHeadSeq + i) * mDt;
+        return mX[physical(i)];
+    }
+
+    /**
+     * Get the y value of a sample of the first channel
+     *
+     * @param i logical index, 0 = oldest
+     * @return y value
+     */
+    float getY(int i) {
+        return getY(0, i);
+    }
+
+    /**
+     * Get the y value of a sample
+     *
+     * @param channel channel index
+     * @param i logical index, 0 = oldest
+     * @return y value
+     */
+    @Override
+    public float getY(int channel, int i) {
+        if (mQ != null)
+            return mBaseline + mQ[channel][physical(i)] * mGain;
+        return mY[channel][physical(i)];
+    }
+
+    /**
+     * Store a y value at a physical index
+     *
+     * @return value stored, rounded to the nearest count when quantized
+     */
+    private float put(int channel, int p, float y) {
+        if (mQ == null) {
+            mY[channel][p] = y;
+            return y;
+        }
+        final short q = quantize(y);
+        mQ[channel][p] = q;
+        return mBaseline + q * mGain;
+    }
+
+    /**
+     * Nearest count of a y value, clamped to the 16-bit range
+     */
+    private short quantize(float y) {
+        final float q = Math.round((y - mBaseline) / mGain);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    /**
+     * Get the max y value in O(1)
+     * The buffer must not be empty
+     *
+     * @return max y value
+     */
+    float maxY() {
+        return mMaxY.peek();
+    }
+
+    /**
+     * Get the min y value in O(1)
+     * The buffer must not be empty
+     *
+     * @return min y value
+     */
+    float minY() {
+        return mMinY.peek();
+    }
+
+    /**
+     * Find the newest sample whose x value is not greater than x
+     *
+     * @param x x value
+     * @return logical index, -1 if every sample is greater
+     */
+    @Override
+    public int floorIndex(double x) {
+        if (mX == null) {
+            // Evenly spaced, no search
+            final double i = Math.floor((x - getX(0)) / mDt + 1e-9);
+            return (int) Math.max(-1, Math.min(mSize - 1, i));
+        }
+        int lo = 0, hi = mSize - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (getX(mid) <= x)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return hi;
+    }
+
+    /**
+     * Append a sample after the newest one
+     * Overwrites the oldest sample if the buffer is full
+     * Other channels are set to 0
+     * With a sample interval x only places the first sample of an empty buffer
+     *
+     * @param x x value
+     * @param y y value of the first channel
+     */
+    void add(double x, float y) {
+        long seq = reserve(1);
+        int tail = tail();
+        putX(seq, tail, x);
+        y = put(0, tail, y);
+        float zero = 0;
+        for (int c = 1; c < mChannels; c++)
+            zero = put(c, tail, 0);
+        if (mChannels > 1) {
+            mMaxY.push(seq, Math.max(y, zero));
+            mMinY.push(seq, Math.min(y, zero));
+        } else {
+            mMaxY.push(seq, y);
+            mMinY.push(seq, y);
+        }
+        mLastX = x;
+        commit(1);
+    }
+
+    /**
+     * Store an absolute x value
+     * With a sample interval, only the x value of a first sample moves the origin
+     */
+    private void putX(long seq, int p, double x) {
+        if (mX != null)
+            mX[p] = x;
+        else if (mSize == 0 && seq == mHeadSeq)
+            mX0 = x - seq * mDt;
+    }
+
+    /**
+     * Physical index the next sample is written to
+     *
+     * @return tail index
+     */
+    private int tail() {
+        return physical(mSize == mCapacity ? 0 : mSize);
+    }
+
+    /**
+     * Evict the samples about to be overwritten from the deques
+     * so they never hold more than capacity() samples
+     *
+     * @param n number of samples about to be written, not more than the capacity
+     * @return sequence number of the first sample written
+     */
+    private long reserve(int n) {
+        int overflow = mSize + n - mCapacity;
+        if (overflow > 0) {
+            if (mHistory != null)
+                mHistory.append(this, overflow);
+            mMaxY.evictBefore(mHeadSeq + overflow);
+            mMinY.evictBefore(mHeadSeq + overflow);
+        }
+        return mHeadSeq + mSize;
+    }
+
+    /**
+     * Account for samples written from the tail
+     * Samples overwritten by a full buffer are evicted
+     *
+     * @param n number of samples written, not more than the capacity
+     */
+    private void commit(int n) {
+        int overflow = mSize + n - mCapacity;
+        if (overflow > 0) {
+            mHead = physical(overflow);
+            mHeadSeq += overflow;
+            mSize = mCapacity;
+        } else {
+            mSize += n;
+        }
+        if (mX == null && mSize > 0)
+            mLastX = getX(mSize - 1);
+    }
+
+    /**
+     * Append samples whose x values are deltas, in one pass
+     * x values are accumulated into absolute values, the deltas are ignored with a sample interval
+     * Only the newest capacity() samples are kept
+     *
+     * @param dx delta x values
+     * @param y y values by channel
+     * @param offset index of the first sample
+     * @param length number of samples
+     */
+    void addDeltas(double[] dx, float[][] y, int offset, int length) {
+        if (mHistory != null) {
+            // Every sample goes through the buffer to reach the history
+            while (length > mCapacity) {
+                addDeltas(dx, y, offset, mCapacity);
+                offset += mCapacity;
+                length -= mCapacity;
+            }
+        }
+        double x = mLastX;
+        if (length > mCapacity) {
+            for (int i = 0; i < length - mCapacity; i++)
+                x += dx[offset + i];
+            // Skipped samples never get a sequence number
+            mX0 += (length - mCapacity) * mDt;
+            offset += length - mCapacity;
+            length = mCapacity;
+        }
+        final long seq = reserve(length);
+        int p = tail();
+        final int channels = mChannels;
+        if (mQ != null) {
+            for (int i = 0; i < length; i++) {
+                x += dx[offset + i];
+                if (mX != null)
+                    mX[p] = x;
+                float max = put(0, p, y[0][offset + i]);
+                float min = max;
+                for (int c = 1; c < channels; c++) {
+                    final float v = put(c, p, y[c][offset + i]);
+                    max = Math.max(max, v);
+                    min = Math.min(min, v);
+                }
+                mMaxY.push(seq + i, max);
+                mMinY.push(seq + i, min);
+                if (++p == mCapacity)
+                    p = 0;
+            }
+            mLastX = x;
+            commit(length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            x += dx[offset + i];
+            if (mX != null)
+                mX[p] = x;
+            float max = y[0][offset + i];
+            float min = max;
+            for (int c = 1; c < channels; c++) {
+                max = Math.max(max, y[c][offset + i]);
+                min = Math.min(min, y[c][offset + i]);
+            }
+            mMaxY.push(seq + i, max);
+            mMinY.push(seq + i, min);
+            if (++p == mCapacity)
+                p = 0;
+        }
+        int tail = tail();
+        int first = Math.min(length, mCapacity - tail);
+        for (int c = 0; c < channels; c++) {
+            System.arraycopy(y[c], offset, mY[c], tail, first);
+            System.arraycopy(y[c], offset + first, mY[c], 0, length - first);
+        }
+        mLastX = x;
+        commit(length);
+    }
+
+    /**
+     * Append frames with absolute x values, in one pass
+     * Frames are interleaved: frame f, channel c is at offset + f * channels + c
+     * Overwrites the oldest samples if the buffer is full
+     * With a sample interval x only places the first frame of an empty buffer
+     *
+     * @param x x values, ascending and not less than the newest one
+     * @param xOffset index of the first x value
+     * @param frames y values
+     * @param offset index of the first y value
+     * @param count number of frames, not more than the capacity
+     */
+    void addFrames(double[] x, int xOffset, float[] frames, int offset, int count) {
+        final int channels = mChannels;
+        final long seq = reserve(count);
+        int p = tail();
+        for (int i = 0; i < count; i++) {
+            putX(seq + i, p, x[xOffset + i]);
+            float max = Float.NEGATIVE_INFINITY;
+            float min = Float.POSITIVE_INFINITY;
+            for (int c = 0; c < channels; c++) {
+                final float y = put(c, p, frames[offset++]);
+                max = Math.max(max, y);
+                min = Math.min(min, y);
+            }
+            mMaxY.push(seq + i, max);
+            mMinY.push(seq + i, min);
+            if (++p == mCapacity)
+                p = 0;
+        }
+        if (count > 0)
+            mLastX = x[xOffset + count - 1];
+        commit(count);
+    }
+
+    /**
+     * Drop the oldest samples
+     * They are spilled to the history if any
+     *
+     * @param n number of samples to drop
+     */
+    void removeFirst(int n) {
+        n = Math.min(n, mSize);
+        if (mHistory != null)
+            mHistory.append(this, n);
+        mHead = physical(n);
+        mSize -= n;
+        mHeadSeq += n;
+        mMaxY.evictBefore(mHeadSeq);
+        mMinY.evictBefore(mHeadSeq);
+    }
+
+    /**
+     * Drop all samples and restart the x accumulation at 0
+     * The arrays are kept for reuse, the history is cleared too
+     */
+    void clear() {
+        if (mHistory != null)
+            mHistory.clear();
+        mHead = 0;
+        mSize = 0;
+        mLastX = 0;
+        mHeadSeq = 0;
+        // The first sample is one interval after 0, as with delta times
+        mX0 = mDt;
+        mMaxY.clear();
+        mMinY.clear();
+    }
+
+    /**
+     * Change the capacity
+     * Keeps the newest samples if the new capacity is smaller
+     *
+     * @param capacity new capacity
+     */
+    void setCapacity(int capacity) {
+        if (capacity == mCapacity)
+            return;
+        final int channels = mChannels;
+        int keep = Math.min(mSize, capacity);
+        if (mHistory != null)
+            mHistory.append(this, mSize - keep);
+        double[] x = mX != null ? new double[capacity] : null;
+        float[][] y = mQ == null ? new float[channels][capacity] : null;
+        short[][] q = mQ != null ? new short[channels][capacity] : null;
+        for (int i = 0; i < keep; i++) {
+            int p = physical(mSize - keep + i);
+            if (x != null)
+                x[i] = mX[p];
+            for (int c = 0; c < channels; c++) {
+                if (q != null)
+                    q[c][i] = mQ[c][p];
+                else
+                    y[c][i] = mY[c][p];
+            }
+        }
+        mX = x;
+        mCapacity = capacity;
+        mY = y;
+        mQ = q;
+        mHead = 0;
+        mHeadSeq += mSize - keep;
+        mSize = keep;
+
+        mMaxY.reset(capacity);
+        mMinY.reset(capacity);
+        for (int i = 0; i < keep; i++) {
+            float max = getY(0, i);
+            float min = max;
+            for (int c = 1; c < channels; c++) {
+                max = Math.max(max, getY(c, i));
+                min = Math.min(min, getY(c, i));
+            }
+            mMaxY.push(mHeadSeq + i, max);
+            mMinY.push(mHeadSeq + i, min);
+        }
+    }
+
+    /**
+     * Keep the evicted samples in a history file
+     * The history must have as many channels as the buffer
+     *
+     * @param history history, null to discard evicted samples
+     */
+    void setHistory(HistoryFile history) {
+        mHistory = history;
+    }
+
+    HistoryFile getHistory() {
+        return mHistory;
+    }
+
+    /**
+     * Change the number of y lanes, the buffer is cleared
+     *
+     * @param channels number of channels
+     */
+    void setChannels(int channels) {
+        if (channels != mChannels) {
+            mChannels = channels;
+            allocateLanes(mQ != null);
+        }
+        clear();
+    }
+
+    /**
+     * Store y values as 16-bit counts, y = baseline + count * gain, the buffer is cleared
+     * Values are rounded to the nearest count and clamped to the 16-bit range
+     *
+     * @param gain y units per count, 0 to store floats
+     * @param baseline y value of count 0
+     */
+    void setQuantization(float gain, float baseline) {
+        final boolean quantized = gain > 0;
+        mGain = gain;
+        mBaseline = baseline;
+        if (quantized != (mQ != null))
+            allocateLanes(quantized);
+        clear();
+    }
+
+    /**
+     * Compute x values from the sample index instead of storing them, the buffer is cleared
+     * Sample seq, counted from the last clear, is at x = (seq + 1) * interval
+     * unless an absolute x value placed the first sample
+     *
+     * @param interval x interval between samples, 0 to store x values
+     */
+    void setSampleInterval(double interval) {
+        mDt = interval > 0 ? interval : 0;
+        if ((mDt > 0) == (mX != null))
+            mX = mDt > 0 ? null : new double[mCapacity];
+        clear();
+    }
+
+    double getSampleInterval() {
+        return mDt;
+    }
+
+    float getGain() {
+        return mGain;
+    }
+
+    float getBaseline() {
+        return mBaseline;
+    }
+
+    /**
+     * Allocate empty lanes of the current channel count and capacity, only one kind is kept
+     */
+    private void allocateLanes(boolean quantized) {
+        mY = quantized ? null : new float[mChannels][mCapacity];
+        mQ = quantized ? new short[mChannels][mCapacity] : null;
+    }
+}
@@ -0,0 +1,36 @@
+package com.rainbowpuppeteer.ecgview;
+
+/**
+ * Sample Filter
+ * Stage of the filter chain applied to appended samples before they are stored
+ * Samples are filtered in place one lane at a time, the state is kept per channel
+ *
+ * Stages run on the thread drawing the series, once per frame for the samples of that frame,
+ * so they must not allocate while filtering, the state is allocated by reset
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#setFilters(SampleFilter...)
+ * @see BiquadFilter
+ * @see FirFilter
+ * @see MedianBaseline
+ */
+public abstract class SampleFilter {
+
+    /**
+     * Forget the past samples and allocate the state of every channel
+     * Called before the first samples and whenever the channel count changes
+     *
+     * @param channels number of channels
+     */
+    public abstract void reset(int channels);
+
+    /**
+     * Filter consecutive samples of a channel in place
+     *
+     * @param channel channel index
+     * @param y samples, replaced by the filtered ones
+     * @param offset index of the first sample
+     * @param length number of samples
+     */
+    public abstract void process(int channel, float[] y, int offset, int length);
+}
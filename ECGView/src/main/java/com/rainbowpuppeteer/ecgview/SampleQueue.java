@@ -0,0 +1,456 @@
+package com.rainbowpuppeteer.ecgview;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sample Queue
+ * Lock-free single-producer / single-consumer queue of samples
+ * The acquisition thread offers samples, the UI thread drains them
+ * into the SampleBuffer once per frame
+ *
+ * Only one thread may offer at a time, and only one thread may drain
+ *
+ * Multi-channel samples are offered as frames, one y value per channel,
+ * and stored as one y lane per channel
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#drainPending()
+ */
+final class SampleQueue {
+
+    /**
+     * Time the producer parks while waiting for space in BLOCK mode
+     */
+    private static final long PARK_NANOS = 100_000L;
+
+    /**
+     * x values, delta times, parallel to the y lanes
+     */
+    private final double[] mX;
+
+    /**
+     * y values by channel, each lane parallel to mX
+     */
+    private final float[][] mY;
+
+    /**
+     * capacity - 1, capacity is a power of two
+     */
+    private final int mMask;
+
+    /**
+     * Sequence of the next sample to drain
+     * Written by the consumer, and by the producer when dropping oldest
+     */
+    private final AtomicLong mHead;
+
+    /**
+     * Sequence of the next sample to offer
+     * Written by the producer only
+     */
+    private final AtomicLong mTail;
+
+    /**
+     * Number of samples dropped on overflow
+     */
+    private final AtomicLong mDropped;
+
+    /**
+     * Called when the producer has to wait for the consumer
+     */
+    private final Runnable mDrainRequest;
+
+    /**
+     * Overflow policy
+     *
+     * @see DataSeries.OverflowPolicy
+     */
+    private volatile DataSeries.OverflowPolicy mPolicy;
+
+    /**
+     * Consumer scratch arrays, drained samples are validated before being stored
+     */
+    private final double[] mScratchX;
+    private final float[][] mScratchY;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity minimum number of pending samples, rounded up to a power of two
+     * @param policy overflow policy
+     * @param drainRequest called when a blocked producer needs the consumer to drain
+     * @param channels number of y values per sample
+     */
+    SampleQueue(int capacity, DataSeries.OverflowPolicy policy, Runnable drainRequest, int channels) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mX = new double[size];
+        mY = new float[channels][size];
+        mScratchX = new double[size];
+        mScratchY = new float[channels][size];
+        mMask = size - 1;
+        mHead = new AtomicLong();
+        mTail = new AtomicLong();
+        mDropped = new AtomicLong();
+        mPolicy = policy;
+        mDrainRequest = drainRequest;
+    }
+
+    int capacity() {
+        return mMask + 1;
+    }
+
+    int channels() {
+        return mY.length;
+    }
+
+    void setPolicy(DataSeries.OverflowPolicy policy) {
+        mPolicy = policy;
+    }
+
+    DataSeries.OverflowPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Number of samples dropped since creation
+     *
+     * @return dropped samples
+     */
+    long getDropped() {
+        return mDropped.get();
+    }
+
+    /**
+     * Number of samples waiting to be drained
+     *
+     * @return pending samples
+     */
+    int pending() {
+        final long n = mTail.get() - mHead.get();
+        return (int) Math.max(0, Math.min(n, mMask + 1));
+    }
+
+    /**
+     * PRODUCER ONLY
+     * Wait for, or make room for, up to n samples
+     *
+     * @param n number of samples to write
+     * @return number of slots available at the tail, 0 if the samples are dropped
+     */
+    private int claim(int n) {
+        final int capacity = mMask + 1;
+        final long tail = mTail.get();
+        while (true) {
+            final long head = mHead.get();
+            final int free = capacity - (int) (tail - head);
+            if (free >= n)
+                return n;
+            switch (mPolicy) {
+                case DROP_NEWEST:
+                    return free;
+                case DROP_OLDEST:
+                    // Steal the oldest slots from the consumer, it validates its reads with a CAS
+                    int needed = Math.min(n, capacity) - free;
+                    if (mHead.compareAndSet(head, head + needed)) {
+                        mDropped.addAndGet(needed);
+                        return Math.min(n, capacity);
+                    }
+                    break;
+                default:
+                    if (free > 0)
+                        return free;
+                    mDrainRequest.run();
+                    LockSupport.parkNanos(PARK_NANOS);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * PRODUCER ONLY
+     * Make n written samples visible to the consumer
+     *
+     * @param n number of samples
+     */
+    private void publish(int n) {
+        mTail.lazySet(mTail.get() + n);
+    }
+
+    /**
+     * PRODUCER ONLY
+     * Offer one sample
+     *
+     * @param x x value
+     * @param y y value
+     */
+    void offer(double x, float y) {
+        if (claim(1) == 0) {
+            mDropped.incrementAndGet();
+            return;
+        }
+        final int p = (int) mTail.get() & mMask;
+        mX[p] = x;
+        mY[0][p] = y;
+        publish(1);
+    }
+
+    /**
+     * PRODUCER ONLY
+     * Offer samples sharing the same x value
+     *
+     * @param y y values
+     * @param offset index of the first value
+     * @param length number of values
+     * @param x x value of every sample
+     */
+    void offer(float[] y, int offset, int length, double x) {
+        while (length > 0) {
+            int n = claim(length);
+            if (n == 0) {
+                mDropped.addAndGet(length);
+                return;
+            }
+            if (n < length && mPolicy == DataSeries.OverflowPolicy.DROP_OLDEST) {
+                // More than the capacity, only the newest samples survive
+                mDropped.addAndGet(length - n);
+                offset += length - n;
+                length = n;
+            }
+            final int p = (int) mTail.get() & mMask;
+            final int first = Math.min(n, mMask + 1 - p);
+            System.arraycopy(y, offset, mY[0], p, first);
+            System.arraycopy(y, offset + first, mY[0], 0, n - first);
+            fillX(p, first, n, x);
+            publish(n);
+            offset += n;
+            length -= n;
+            if (length > 0 && mPolicy == DataSeries.OverflowPolicy.DROP_NEWEST) {
+                mDropped.addAndGet(length);
+                return;
+            }
+        }
+    }
+
+    /**
+     * PRODUCER ONLY
+     * Offer samples sharing the same x value
+     *
+     * @param y y values
+     * @param offset index of the first value
+     * @param length number of values
+     * @param x x value of every sample
+     */
+    void offer(double[] y, int offset, int length, double x) {
+        while (length > 0) {
+            int n = claim(length);
+            if (n == 0) {
+                mDropped.addAndGet(length);
+                return;
+            }
+            if (n < length && mPolicy == DataSeries.OverflowPolicy.DROP_OLDEST) {
+                mDropped.addAndGet(length - n);
+                offset += length - n;
+                length = n;
+            }
+            final long tail = mTail.get();
+            for (int i = 0; i < n; i++) {
+                final int p = (int) (tail + i) & mMask;
+                mX[p] = x;
+                mY[0][p] = (float) y[offset + i];
+            }
+            publish(n);
+            offset += n;
+            length -= n;
+            if (length > 0 && mPolicy == DataSeries.OverflowPolicy.DROP_NEWEST) {
+                mDropped.addAndGet(length);
+                return;
+            }
+        }
+    }
+
+    /**
+     * PRODUCER ONLY
+     * Offer the remaining values of a buffer, its position is advanced to its limit
+     *
+     * @param y y values
+     * @param x x value of every sample
+     */
+    void offer(FloatBuffer y, double x) {
+        while (y.hasRemaining()) {
+            int length = y.remaining();
+            int n = claim(length);
+            if (n == 0)
+                break;
+            if (n < length && mPolicy == DataSeries.OverflowPolicy.DROP_OLDEST) {
+                mDropped.addAndGet(length - n);
+                y.position(y.position() + length - n);
+            }
+            final int p = (int) mTail.get() & mMask;
+            final int first = Math.min(n, mMask + 1 - p);
+            y.get(mY[0], p, first);
+            y.get(mY[0], 0, n - first);
+            fillX(p, first, n, x);
+            publish(n);
+            if (mPolicy == DataSeries.OverflowPolicy.DROP_NEWEST)
+                break;
+        }
+        if (y.hasRemaining()) {
+            mDropped.addAndGet(y.remaining());
+            y.position(y.limit());
+        }
+    }
+
+    /**
+     * PRODUCER ONLY
+     * Offer the remaining values of a buffer, its position is advanced to its limit
+     *
+     * @param y y values
+     * @param x x value of every sample
+     */
+    void offer(DoubleBuffer y, double x) {
+        while (y.hasRemaining()) {
+            int length = y.remaining();
+            int n = claim(length);
+            if (n == 0)
+                break;
+            if (n < length && mPolicy == DataSeries.OverflowPolicy.DROP_OLDEST) {
+                mDropped.addAndGet(length - n);
+                y.position(y.position() + length - n);
+            }
+            final long tail = mTail.get();
+            for (int i = 0; i < n; i++) {
+                final int p = (int) (tail + i) & mMask;
+                mX[p] = x;
+                mY[0][p] = (float) y.get();
+            }
+            publish(n);
+            if (mPolicy == DataSeries.OverflowPolicy.DROP_NEWEST)
+                break;
+        }
+        if (y.hasRemaining()) {
+            mDropped.addAndGet(y.remaining());
+            y.position(y.limit());
+        }
+    }
+
+    /**
+     * PRODUCER ONLY
+     * Offer frames sharing the same x value
+     * Frames are interleaved: frame f, channel c is at offset + f * channels + c
+     *
+     * @param frames y values
+     * @param offset index of the first value
+     * @param count number of frames
+     * @param x x value of every frame
+     */
+    void offerFrames(float[] frames, int offset, int count, double x) {
+        final int channels = mY.length;
+        while (count > 0) {
+            int n = claim(count);
+            if (n == 0) {
+                mDropped.addAndGet(count);
+                return;
+            }
+            if (n < count && mPolicy == DataSeries.OverflowPolicy.DROP_OLDEST) {
+                mDropped.addAndGet(count - n);
+                offset += (count - n) * channels;
+                count = n;
+            }
+            final long tail = mTail.get();
+            for (int i = 0; i < n; i++) {
+                final int p = (int) (tail + i) & mMask;
+                mX[p] = x;
+                for (int c = 0; c < channels; c++)
+                    mY[c][p] = frames[offset + c];
+                offset += channels;
+            }
+            publish(n);
+            count -= n;
+            if (count > 0 && mPolicy == DataSeries.OverflowPolicy.DROP_NEWEST) {
+                mDropped.addAndGet(count);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fill x values of a wrapped slot range
+     *
+     * @param p first physical slot
+     * @param first number of slots before the wrap
+     * @param n number of slots
+     * @param x x value
+     */
+    private void fillX(int p, int first, int n, double x) {
+        Arrays.fill(mX, p, p + first, x);
+        Arrays.fill(mX, 0, n - first, x);
+    }
+
+    /**
+     * CONSUMER ONLY
+     * Move the samples pending at the call into the buffer
+     *
+     * @param buffer destination
+     * @param recorder also writes the samples if not null, before filtering
+     * @param filters stages applied in place to every lane in order, null if none
+     * @return number of samples moved
+     */
+    int drainTo(SampleBuffer buffer, RecordingWriter recorder, SampleFilter[] filters) {
+        // One snapshot per call, samples offered meanwhile wait for the next frame,
+        // so a saturated producer cannot keep the consumer draining
+        final long tail = mTail.get();
+        final long head = mHead.get();
+        final int n = (int) (tail - head);
+        if (n <= 0)
+            return 0;
+        final int p = (int) head & mMask;
+        final int first = Math.min(n, mMask + 1 - p);
+        System.arraycopy(mX, p, mScratchX, 0, first);
+        System.arraycopy(mX, 0, mScratchX, first, n - first);
+        for (int c = 0; c < mY.length; c++) {
+            System.arraycopy(mY[c], p, mScratchY[c], 0, first);
+            System.arraycopy(mY[c], 0, mScratchY[c], first, n - first);
+        }
+        // The producer may have dropped the oldest samples while they were copied,
+        // copies from the current head on were not overwritten
+        // Every failed CAS means the producer moved the head forward, so this ends within n tries
+        long valid = mHead.get();
+        while (valid < tail && !mHead.compareAndSet(valid, tail))
+            valid = mHead.get();
+        if (valid >= tail)
+            return 0;
+        final int skip = (int) (valid - head);
+        if (recorder != null) {
+            // Keep the recorded timeline across the samples dropped during the copy
+            double gap = 0;
+            for (int i = 0; i < skip; i++)
+                gap += mScratchX[i];
+            recorder.skip(gap);
+            recorder.write(mScratchX, mScratchY, skip, n - skip);
+        }
+        if (filters != null) {
+            for (SampleFilter filter : filters) {
+                for (int c = 0; c < mScratchY.length; c++)
+                    filter.process(c, mScratchY[c], skip, n - skip);
+            }
+        }
+        buffer.addDeltas(mScratchX, mScratchY, skip, n - skip);
+        return n - skip;
+    }
+
+    /**
+     * CONSUMER ONLY
+     * Discard every pending sample
+     */
+    void clear() {
+        while (true) {
+            final long head = mHead.get();
+            if (mHead.compareAndSet(head, Math.max(head, mTail.get())))
+                return;
+        }
+    }
+}
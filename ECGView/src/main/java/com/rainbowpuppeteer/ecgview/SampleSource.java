@@ -0,0 +1,227 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.util.Log;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Sample Source
+ * Samples of a static graph read on demand, instead of being copied into the series
+ * Samples are read on the UI thread while drawing, so reads should be cheap,
+ * e.g. from a page cache of a file
+ *
+ * The wrap factories read arrays or buffers owned by the caller in place, nothing is copied
+ * Frames are interleaved, channel c of frame f is at f * channels + c
+ * x values are either x0 + i * dx or read from a sorted x array
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#setDataSource(SampleSource, boolean)
+ * @see EdfReader#getSource(int...)
+ */
+public abstract class SampleSource implements SampleView {
+
+    private static final String TAG = "ECGView.SampleSource";
+
+    /**
+     * Wrap interleaved frames of evenly spaced samples
+     *
+     * @param frames frames, not copied
+     * @param channels number of channels
+     * @param x0 x value of the first frame
+     * @param dx x interval between frames, e.g. 1 / sample rate
+     * @return source, null if illegal
+     */
+    public static SampleSource wrap(float[] frames, int channels, double x0, double dx) {
+        if (frames == null || !check(channels, dx, null, 0))
+            return null;
+        return new WrappedSource.FloatFrames(frames, channels, x0, dx, null);
+    }
+
+    /**
+     * Wrap interleaved frames with their x values
+     *
+     * @param frames frames, not copied
+     * @param channels number of channels
+     * @param x sorted x values, one per frame, not copied
+     * @return source, null if illegal
+     */
+    public static SampleSource wrap(float[] frames, int channels, double[] x) {
+        if (frames == null || x == null || !check(channels, 1, x, frames.length / Math.max(1, channels)))
+            return null;
+        return new WrappedSource.FloatFrames(frames, channels, 0, 0, x);
+    }
+
+    /**
+     * Wrap one lane per channel, of equal lengths
+     *
+     * @param lanes y values by channel, then sample, not copied
+     * @param x0 x value of the first sample
+     * @param dx x interval between samples
+     * @return source, null if illegal
+     */
+    public static SampleSource wrap(float[][] lanes, double x0, double dx) {
+        final int size = laneSize(lanes);
+        if (size < 0 || !check(lanes.length, dx, null, 0))
+            return null;
+        return new WrappedSource.FloatLanes(lanes, size, x0, dx, null);
+    }
+
+    public static SampleSource wrap(float[][] lanes, double[] x) {
+        final int size = laneSize(lanes);
+        if (size < 0 || x == null || !check(lanes.length, 1, x, size))
+            return null;
+        return new WrappedSource.FloatLanes(lanes, size, 0, 0, x);
+    }
+
+    /**
+     * Wrap interleaved frames of double values, narrowed to float when read
+     *
+     * @see #wrap(float[], int, double, double)
+     */
+    public static SampleSource wrap(double[] frames, int channels, double x0, double dx) {
+        if (frames == null || !check(channels, dx, null, 0))
+            return null;
+        return new WrappedSource.DoubleFrames(frames, channels, x0, dx, null);
+    }
+
+    public static SampleSource wrap(double[] frames, int channels, double[] x) {
+        if (frames == null || x == null || !check(channels, 1, x, frames.length / Math.max(1, channels)))
+            return null;
+        return new WrappedSource.DoubleFrames(frames, channels, 0, 0, x);
+    }
+
+    /**
+     * Wrap the frames between the position and the limit of a buffer, e.g. a mapped file
+     * The position of the buffer may change afterwards, reads are absolute
+     *
+     * @see #wrap(float[], int, double, double)
+     */
+    public static SampleSource wrap(FloatBuffer frames, int channels, double x0, double dx) {
+        if (frames == null || !check(channels, dx, null, 0))
+            return null;
+        return new WrappedSource.FloatBufferFrames(frames, channels, x0, dx, null);
+    }
+
+    public static SampleSource wrap(FloatBuffer frames, int channels, double[] x) {
+        if (frames == null || x == null || !check(channels, 1, x, frames.remaining() / Math.max(1, channels)))
+            return null;
+        return new WrappedSource.FloatBufferFrames(frames, channels, 0, 0, x);
+    }
+
+    /**
+     * Wrap the ADC counts between the position and the limit of a buffer
+     * Values are offset + count * gain
+     *
+     * @param frames frames of counts, not copied
+     * @param channels number of channels
+     * @param gain physical units per count
+     * @param offset physical value of count 0
+     * @param x0 x value of the first frame
+     * @param dx x interval between frames
+     * @return source, null if illegal
+     */
+    public static SampleSource wrap(ShortBuffer frames, int channels, float gain, float offset,
+                                    double x0, double dx) {
+        if (frames == null || !check(channels, dx, null, 0))
+            return null;
+        return new WrappedSource.ShortBufferFrames(frames, channels, gain, offset, x0, dx, null);
+    }
+
+    public static SampleSource wrap(ShortBuffer frames, int channels, float gain, float offset, double[] x) {
+        if (frames == null || x == null || !check(channels, 1, x, frames.remaining() / Math.max(1, channels)))
+            return null;
+        return new WrappedSource.ShortBufferFrames(frames, channels, gain, offset, 0, 0, x);
+    }
+
+    /**
+     * Check wrap arguments
+     *
+     * @param x x values, null if implicit
+     * @param size number of frames needing an x value
+     */
+    private static boolean check(int channels, double dx, double[] x, int size) {
+        if (channels <= 0 || !(dx > 0) || (x != null && x.length < size)) {
+            Log.e(TAG, "Illegal argument");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Common length of the lanes, -1 if illegal
+     */
+    private static int laneSize(float[][] lanes) {
+        if (lanes == null || lanes.length == 0 || lanes[0] == null) {
+            Log.e(TAG, "Illegal argument");
+            return -1;
+        }
+        for (float[] lane : lanes) {
+            if (lane == null || lane.length != lanes[0].length) {
+                Log.e(TAG, "Lanes must have the same length");
+                return -1;
+            }
+        }
+        return lanes[0].length;
+    }
+
+    /**
+     * Number of samples
+     */
+    @Override
+    public abstract int size();
+
+    /**
+     * Number of y values per sample
+     */
+    @Override
+    public abstract int channels();
+
+    /**
+     * Get the x value of a sample, x values are sorted
+     *
+     * @param i index, 0 = first
+     * @return x value
+     */
+    @Override
+    public abstract double getX(int i);
+
+    /**
+     * Get the y value of a sample
+     *
+     * @param channel channel index
+     * @param i index, 0 = first
+     * @return y value
+     */
+    @Override
+    public abstract float getY(int channel, int i);
+
+    /**
+     * Bounds of the y values, used to sync the graph bounds without reading every sample
+     *
+     * @see DataSeries#getYMax()
+     */
+    public abstract double getYMax();
+
+    public abstract double getYMin();
+
+    /**
+     * Find the last sample whose x value is not greater than x
+     * Binary search, override it when x values are evenly spaced
+     *
+     * @param x x value
+     * @return index, -1 if every sample is greater
+     */
+    @Override
+    public int floorIndex(double x) {
+        int lo = 0, hi = size() - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (getX(mid) <= x)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return hi;
+    }
+}
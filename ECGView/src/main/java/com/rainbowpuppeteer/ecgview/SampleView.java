@@ -0,0 +1,47 @@
+package com.rainbowpuppeteer.ecgview;
+
+/**
+ * Sample View
+ * Read access to samples sorted by x, whatever they are stored in
+ *
+ * @author RainbowPuppeteer
+ * @see SampleBuffer
+ * @see HistoryFile
+ */
+interface SampleView {
+
+    /**
+     * Number of samples
+     */
+    int size();
+
+    /**
+     * Number of y values per sample
+     */
+    int channels();
+
+    /**
+     * Get the x value of a sample
+     *
+     * @param i index, 0 = oldest
+     * @return x value
+     */
+    double getX(int i);
+
+    /**
+     * Get the y value of a sample
+     *
+     * @param channel channel index
+     * @param i index, 0 = oldest
+     * @return y value
+     */
+    float getY(int channel, int i);
+
+    /**
+     * Find the newest sample whose x value is not greater than x
+     *
+     * @param x x value
+     * @return index, -1 if every sample is greater
+     */
+    int floorIndex(double x);
+}
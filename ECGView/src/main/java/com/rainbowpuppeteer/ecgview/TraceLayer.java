@@ -0,0 +1,169 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+/**
+ * Trace Layer
+ * Offscreen bitmap of the line, the size of the graph area
+ * Updated incrementally: only the columns of the new samples are erased and stroked
+ *
+ * Columns wrap around, x = 0 follows x = width,
+ * so the trace never has to be moved.
+ * A scrolling line is drawn rotated instead of shifting the pixels
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#SWEEP_GRAPH
+ * @see DataSeries#setIncrementalScroll(boolean)
+ */
+final class TraceLayer {
+
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+
+    /**
+     * Clears pixels
+     */
+    private final Paint mErasePaint;
+
+    /**
+     * Is the content up to date
+     */
+    private boolean mValid;
+
+    /**
+     * Key of the content
+     */
+    private int mWidth, mHeight;
+    private double mXInterval, mYMin, mYMax;
+
+    /**
+     * Reused source and destination rects of the rotated drawing
+     */
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    TraceLayer() {
+        mErasePaint = new Paint();
+        mErasePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+    }
+
+    /**
+     * Redraw everything on the next frame
+     */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Is the content drawn for this size and these bounds
+     *
+     * @param width graph width
+     * @param height graph height
+     * @param xInterval x value across the width
+     * @param yMin y value at the bottom
+     * @param yMax y value at the top
+     * @return up to date or not
+     */
+    boolean isValid(int width, int height, double xInterval, double yMin, double yMax) {
+        return mValid && width == mWidth && height == mHeight
+                && xInterval == mXInterval && yMin == mYMin && yMax == mYMax;
+    }
+
+    /**
+     * Clear the content and set the key it is drawn for
+     *
+     * @return canvas to draw to, origin at the graph top left
+     * @see #isValid(int, int, double, double, double)
+     */
+    Canvas reset(int width, int height, double xInterval, double yMin, double yMax) {
+        mWidth = width;
+        mHeight = height;
+        mXInterval = xInterval;
+        mYMin = yMin;
+        mYMax = yMax;
+        if (mBitmap == null || mBitmap.getWidth() != Math.max(1, width)
+                || mBitmap.getHeight() != Math.max(1, height)) {
+            release();
+            mBitmap = Bitmap.createBitmap(Math.max(1, width), Math.max(1, height), Bitmap.Config.ARGB_8888);
+            mCanvas = new Canvas(mBitmap);
+        } else {
+            mBitmap.eraseColor(Color.TRANSPARENT);
+        }
+        mValid = true;
+        return mCanvas;
+    }
+
+    /**
+     * Get the canvas to update the content
+     * The layer must be valid
+     */
+    Canvas getCanvas() {
+        return mCanvas;
+    }
+
+    /**
+     * Clear the columns [from, to), wrapping past the right edge
+     *
+     * @param from first column, in [0, width)
+     * @param to end column, may be past the width
+     */
+    void erase(float from, float to) {
+        if (to - from >= mWidth) {
+            mBitmap.eraseColor(Color.TRANSPARENT);
+            return;
+        }
+        final float left = (float) Math.floor(from);
+        final float right = (float) Math.ceil(to);
+        mCanvas.drawRect(left, 0, Math.min(right, mWidth), mHeight, mErasePaint);
+        if (right > mWidth)
+            mCanvas.drawRect(0, 0, right - mWidth, mHeight, mErasePaint);
+    }
+
+    /**
+     * Composite the content
+     *
+     * @param target canvas
+     * @param left graph left
+     * @param top graph top
+     */
+    void draw(Canvas target, int left, int top) {
+        target.drawBitmap(mBitmap, left, top, null);
+    }
+
+    /**
+     * Composite the content rotated so a column ends at the right edge
+     *
+     * @param target canvas
+     * @param left graph left
+     * @param top graph top
+     * @param cursor column to end at the right edge, in [0, width]
+     */
+    void drawRotated(Canvas target, int left, int top, float cursor) {
+        final int split = Math.min(mWidth, Math.max(0, (int) Math.ceil(cursor)));
+        // Columns after the cursor are the oldest, on the left
+        mSrc.set(split, 0, mWidth, mHeight);
+        mDst.set(left, top, left + mWidth - split, top + mHeight);
+        target.drawBitmap(mBitmap, mSrc, mDst, null);
+        mSrc.set(0, 0, split, mHeight);
+        mDst.set(left + mWidth - split, top, left + mWidth, top + mHeight);
+        target.drawBitmap(mBitmap, mSrc, mDst, null);
+    }
+
+    /**
+     * Free the bitmap, it is drawn again on the next frame
+     */
+    void release() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+            mCanvas = null;
+        }
+        mValid = false;
+    }
+}
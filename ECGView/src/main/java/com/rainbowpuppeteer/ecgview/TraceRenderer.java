@@ -0,0 +1,185 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.Arrays;
+
+/**
+ * Trace Renderer
+ * Strokes a polyline of screen points with a single drawLines call
+ *
+ * The caller transforms the visible samples straight into the point buffer,
+ * which is then optionally decimated in place and expanded into line vertices.
+ * Clipping is left to the canvas
+ *
+ * In decimating mode every pixel column is collapsed to its
+ * first, min, max and last points (M4), so peaks are never lost
+ * while the number of segments stays proportional to the width.
+ * Long runs are streamed through the buffer in chunks, each one decimated
+ * after the points kept so far, so the buffer follows the width too
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#draw(Canvas, int, int, int, int, double, double, double, double)
+ */
+final class TraceRenderer {
+
+    /**
+     * Points streamed through the buffer at a time when decimating
+     *
+     * @see #decimateAppended(int, int)
+     */
+    static final int CHUNK = 4096;
+
+    /**
+     * Screen points, x and y interleaved
+     * Reused between frames
+     */
+    private float[] mPoints = new float[0];
+
+    /**
+     * Line vertices, two points per segment
+     * Reused between frames
+     */
+    private float[] mLines = new float[0];
+
+    /**
+     * Get a point buffer for at least count points, the points already written are kept
+     * Point i is stored at [2 * i] and [2 * i + 1]
+     *
+     * @param count number of points
+     * @return point buffer
+     */
+    float[] points(int count) {
+        if (mPoints.length < count * 2)
+            mPoints = Arrays.copyOf(mPoints, Math.max(count * 2, mPoints.length * 3 / 2));
+        return mPoints;
+    }
+
+    /**
+     * Decimate points written after already decimated ones
+     * The last column of those is decimated again with the new points, it may continue in them
+     *
+     * @param count number of decimated points
+     * @param added number of points written after them
+     * @return number of points left
+     * @see #points(int)
+     */
+    int decimateAppended(int count, int added) {
+        int from = count;
+        if (count > 0) {
+            final int column = (int) Math.floor(mPoints[2 * (count - 1)]);
+            while (from > 0 && (int) Math.floor(mPoints[2 * (from - 1)]) == column)
+                from--;
+        }
+        return decimate(from, count + added);
+    }
+
+    /**
+     * Stroke the points written to the point buffer
+     *
+     * @param canvas canvas
+     * @param paint line paint
+     * @param left clip left
+     * @param top clip top
+     * @param right clip right
+     * @param bottom clip bottom
+     * @param count number of points
+     * @param decimate collapse each pixel column to first, min, max and last
+     * @see #points(int)
+     */
+    void draw(Canvas canvas, Paint paint, float left, float top, float right, float bottom,
+              int count, boolean decimate) {
+        draw(canvas, paint, left, top, right, bottom, count, decimate, 0);
+    }
+
+    /**
+     * Stroke the points written to the point buffer,
+     * the part past the right edge is drawn again shifted back by wrap
+     *
+     * @param wrap width the x values wrap around, 0 for no wrapping
+     * @see #draw(Canvas, Paint, float, float, float, float, int, boolean)
+     */
+    void draw(Canvas canvas, Paint paint, float left, float top, float right, float bottom,
+              int count, boolean decimate, float wrap) {
+        if (decimate)
+            count = decimate(0, count);
+        if (count < 2)
+            return;
+
+        final int segments = count - 1;
+        if (mLines.length < segments * 4)
+            mLines = new float[Math.max(segments * 4, mLines.length * 3 / 2)];
+        final float[] points = mPoints;
+        final float[] lines = mLines;
+        for (int i = 0, j = 0; i < segments * 2; i += 2, j += 4) {
+            lines[j] = points[i];
+            lines[j + 1] = points[i + 1];
+            lines[j + 2] = points[i + 2];
+            lines[j + 3] = points[i + 3];
+        }
+
+        final int save = canvas.save();
+        canvas.clipRect(left, top, right, bottom);
+        canvas.drawLines(lines, 0, segments * 4, paint);
+        // Points are sorted by x, the last one tells if the line runs past the edge
+        if (wrap > 0 && lines[segments * 4 - 2] > right) {
+            // The clip is already set, only the wrapped part lands in it
+            canvas.translate(-wrap, 0);
+            canvas.drawLines(lines, 0, segments * 4, paint);
+        }
+        canvas.restoreToCount(save);
+    }
+
+    /**
+     * Collapse each pixel column to its first, min, max and last points (M4)
+     * in place, min and max are kept in the order they occurred
+     *
+     * @param from index of the first point to decimate, the points before it are kept
+     * @param count number of points
+     * @return number of points left
+     */
+    private int decimate(int from, int count) {
+        final float[] p = mPoints;
+        int w = from;
+        int i = from;
+        while (i < count) {
+            final int column = (int) Math.floor(p[2 * i]);
+            final int first = i;
+            int min = i, max = i;
+            i++;
+            while (i < count && (int) Math.floor(p[2 * i]) == column) {
+                final float y = p[2 * i + 1];
+                if (y < p[2 * min + 1])
+                    min = i;
+                else if (y > p[2 * max + 1])
+                    max = i;
+                i++;
+            }
+            final int last = i - 1;
+            // Outputs never outnumber the inputs of the column, so writing never passes reading
+            w = copy(first, w);
+            if (min < max) {
+                if (min != first) w = copy(min, w);
+                if (max != last) w = copy(max, w);
+            } else if (max < min) {
+                if (max != first) w = copy(max, w);
+                if (min != last) w = copy(min, w);
+            }
+            if (last != first)
+                w = copy(last, w);
+        }
+        return w;
+    }
+
+    /**
+     * Move point from to slot to
+     *
+     * @return next free slot
+     */
+    private int copy(int from, int to) {
+        mPoints[2 * to] = mPoints[2 * from];
+        mPoints[2 * to + 1] = mPoints[2 * from + 1];
+        return to + 1;
+    }
+}
@@ -0,0 +1,169 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.content.Context;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.widget.OverScroller;
+
+/**
+ * Viewport Gestures
+ * Pinch to zoom and drag or fling to pan the x range of a static graph
+ *
+ * Gestures only move the graph viewport, nothing is laid out again,
+ * the data series draws the visible range found by binary search
+ * and zoomed out ranges from its level of detail pyramid
+ *
+ * @author RainbowPuppeteer
+ * @see Graph#setViewport(double, double)
+ * @see ECGView#setGesturesEnabled(boolean)
+ */
+final class ViewportGestures extends GestureDetector.SimpleOnGestureListener
+        implements ScaleGestureDetector.OnScaleGestureListener {
+
+    /**
+     * Smallest x interval of a grid when zooming in
+     */
+    private static final double MIN_GRID_X_INTERVAL = 0.001;
+
+    private final Graph mGraph;
+    private final DataSeries mDataSeries;
+
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+    private final OverScroller mScroller;
+
+    /**
+     * Left and width of the graph, in view pixels, when the gesture started
+     */
+    private float graphLeft;
+    private float graphWidth;
+
+    /**
+     * Fling positions are pixels from the data x min, at the scale of the fling start
+     */
+    private double flingXMin;
+    private double flingScale;
+
+    ViewportGestures(Context context, Graph graph, DataSeries dataSeries) {
+        mGraph = graph;
+        mDataSeries = dataSeries;
+        mScaleDetector = new ScaleGestureDetector(context, this);
+        mGestureDetector = new GestureDetector(context, this);
+        mScroller = new OverScroller(context);
+    }
+
+    /**
+     * Feed a touch event
+     *
+     * @param event event
+     * @param left left of the graph in the view
+     * @return true if the event was used by a pinch, drag or fling,
+     * otherwise the view handles it, e.g. as a click
+     */
+    boolean onTouchEvent(MotionEvent event, float left) {
+        if (!isActive())
+            return false;
+        graphLeft = left;
+        graphWidth = mGraph.getGraphWidth();
+        if (graphWidth <= 0)
+            return false;
+        mScaleDetector.onTouchEvent(event);
+        if (mScaleDetector.isInProgress())
+            return true;
+        return mGestureDetector.onTouchEvent(event);
+    }
+
+    /**
+     * Can the viewport be moved, only a static graph with data can
+     */
+    boolean isActive() {
+        return mDataSeries.getGraphType() == DataSeries.STATIC_GRAPH && !mDataSeries.isEmpty();
+    }
+
+    /**
+     * Move the viewport along a running fling, before drawing
+     * Requests the next frame until the fling ends
+     */
+    void computeScroll() {
+        if (!mScroller.computeScrollOffset())
+            return;
+        final double span = mGraph.getXMax() - mGraph.getXMin();
+        final double xMin = flingXMin + mScroller.getCurrX() / flingScale;
+        mGraph.setViewport(xMin, xMin + span);
+    }
+
+    /**
+     * Move the viewport within the data
+     * The span is limited to the data and to the smallest grid interval
+     *
+     * @param xMin wanted x min
+     * @param span wanted x interval
+     */
+    private void moveViewport(double xMin, double span) {
+        final double dataXMin = mDataSeries.getXMin();
+        final double dataXMax = mDataSeries.getXMax();
+        final double minSpan = MIN_GRID_X_INTERVAL * mGraph.getXGridNumbers();
+        span = Math.max(minSpan, Math.min(span, Math.max(minSpan, dataXMax - dataXMin)));
+        xMin = Math.max(dataXMin, Math.min(xMin, dataXMax - span));
+        mGraph.setViewport(xMin, xMin + span);
+    }
+
+    @Override
+    public boolean onDown(MotionEvent e) {
+        // A touch stops a fling, taps are left to the view
+        final boolean flinging = !mScroller.isFinished();
+        mScroller.forceFinished(true);
+        return flinging;
+    }
+
+    @Override
+    public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+        final double xMin = mGraph.getXMin();
+        final double span = mGraph.getXMax() - xMin;
+        moveViewport(xMin + distanceX / graphWidth * span, span);
+        return true;
+    }
+
+    @Override
+    public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+        final double xMin = mGraph.getXMin();
+        final double span = mGraph.getXMax() - xMin;
+        final double dataXMin = mDataSeries.getXMin();
+        final double range = mDataSeries.getXMax() - dataXMin - span;
+        if (range <= 0)
+            return false;
+        flingXMin = dataXMin;
+        flingScale = graphWidth / span;
+        mScroller.fling((int) ((xMin - dataXMin) * flingScale), 0, (int) -velocityX, 0,
+                0, (int) Math.min(Integer.MAX_VALUE, range * flingScale), 0, 0);
+        mGraph.invalidate();
+        return true;
+    }
+
+    @Override
+    public boolean onScaleBegin(ScaleGestureDetector detector) {
+        mScroller.forceFinished(true);
+        return true;
+    }
+
+    @Override
+    public boolean onScale(ScaleGestureDetector detector) {
+        final float previous = detector.getPreviousSpanX();
+        final float current = detector.getCurrentSpanX();
+        // Fingers above each other give no horizontal span, fall back to the overall scale
+        final double factor = previous > 1 && current > 1 ? previous / current : 1 / detector.getScaleFactor();
+        final double xMin = mGraph.getXMin();
+        final double span = mGraph.getXMax() - xMin;
+        // The x value under the focus stays under it
+        final double focus = (detector.getFocusX() - graphLeft) / graphWidth;
+        final double focusX = xMin + focus * span;
+        final double newSpan = span * factor;
+        moveViewport(focusX - focus * newSpan, newSpan);
+        return true;
+    }
+
+    @Override
+    public void onScaleEnd(ScaleGestureDetector detector) {
+    }
+}
@@ -0,0 +1,430 @@
+package com.rainbowpuppeteer.ecgview;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * WFDB Reader
+ * Streams a PhysioNet record, a .hea header and its .dat signal files, into primitive frames
+ * Signal files are read in chunks through a FileChannel, so records larger than the heap
+ * can be appended to a dynamic series, or read window by window
+ *
+ * Supports single-segment records in format 212 and 16, one sample per signal per frame.
+ * Signals may be spread over several signal files
+ *
+ * Values are converted to physical units, (adc - baseline) / gain
+ *
+ * @author RainbowPuppeteer
+ * @see DataSeries#appendFrames(float[], int, int, double, boolean)
+ */
+public final class WfdbReader implements Closeable {
+
+    private static final String TAG = "ECGView.WfdbReader";
+
+    /**
+     * Bytes read from a signal file at a time
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Frames decoded at a time by readInto
+     */
+    private static final int READ_FRAMES = 4096;
+
+    /**
+     * WFDB defaults
+     */
+    private static final double DEFAULT_FREQUENCY = 250;
+    private static final double DEFAULT_GAIN = 200;
+    private static final String DEFAULT_UNITS = "mV";
+
+    private final int mSignals;
+    private final double mFrequency;
+
+    /**
+     * Number of frames of the record, 0 if not in the header
+     */
+    private final long mFrames;
+
+    /**
+     * Per signal, in frame order
+     */
+    private final float[] mGain;
+    private final float[] mBaseline;
+    private final String[] mUnits;
+    private final String[] mDescription;
+
+    private final SignalFile[] mFiles;
+
+    /**
+     * Index of the next frame to read
+     */
+    private long mPosition;
+
+    /**
+     * Constructor.
+     * Parses the header and opens the signal files, found next to the header
+     *
+     * @param header .hea file
+     * @throws IOException if a file cannot be read, or the record is not supported
+     */
+    public WfdbReader(File header) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(header))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#"))
+                    lines.add(line);
+            }
+        }
+        if (lines.isEmpty())
+            throw new IOException("Empty header: " + header);
+
+        // Record line: name[/segments] signals [frequency[/counter][(base)] [frames [time [date]]]]
+        final String[] record = lines.get(0).split("\\s+");
+        if (record[0].contains("/"))
+            throw new IOException("Multi-segment records are not supported: " + header);
+        try {
+            mSignals = record.length > 1 ? Integer.parseInt(record[1]) : 0;
+            mFrequency = record.length > 2 ? Double.parseDouble(leading(record[2], "/(")) : DEFAULT_FREQUENCY;
+            mFrames = record.length > 3 ? Long.parseLong(record[3]) : 0;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed record line: " + header);
+        }
+        if (mSignals <= 0 || !(mFrequency > 0) || lines.size() < 1 + mSignals)
+            throw new IOException("Malformed record line: " + header);
+
+        mGain = new float[mSignals];
+        mBaseline = new float[mSignals];
+        mUnits = new String[mSignals];
+        mDescription = new String[mSignals];
+        final List<String> names = new ArrayList<>();
+        final List<List<Integer>> signalsByFile = new ArrayList<>();
+        final List<int[]> formatByFile = new ArrayList<>();
+
+        for (int s = 0; s < mSignals; s++) {
+            // Signal line: file format[xsamples][:skew][+offset] [gain[(baseline)][/units] [resolution [zero
+            //              [initial [checksum [block [description]]]]]]]
+            final String[] field = lines.get(1 + s).split("\\s+", 9);
+            if (field.length < 2 || field[0].equals("-"))
+                throw new IOException("Malformed signal line " + s + ": " + header);
+            try {
+                final int format = Integer.parseInt(leading(field[1], "x:+"));
+                if (format != 212 && format != 16)
+                    throw new IOException("Unsupported format " + format + ": " + header);
+                final int x = field[1].indexOf('x');
+                if (x >= 0 && Integer.parseInt(leading(field[1].substring(x + 1), ":+")) != 1)
+                    throw new IOException("Multi-frequency records are not supported: " + header);
+                final int plus = field[1].indexOf('+');
+                final int offset = plus >= 0 ? Integer.parseInt(field[1].substring(plus + 1)) : 0;
+
+                double gain = 0;
+                String baseline = null;
+                String units = DEFAULT_UNITS;
+                if (field.length > 2) {
+                    final String spec = field[2];
+                    gain = Double.parseDouble(leading(spec, "(/"));
+                    final int open = spec.indexOf('(');
+                    if (open >= 0)
+                        baseline = spec.substring(open + 1, spec.indexOf(')', open));
+                    final int slash = spec.indexOf('/');
+                    if (slash >= 0)
+                        units = spec.substring(slash + 1);
+                }
+                // The baseline defaults to the ADC zero
+                if (baseline == null)
+                    baseline = field.length > 4 ? field[4] : "0";
+                mGain[s] = (float) (gain == 0 ? DEFAULT_GAIN : gain);
+                mBaseline[s] = Integer.parseInt(baseline);
+                mUnits[s] = units;
+                mDescription[s] = field.length > 8 ? field[8] : "";
+
+                int f = names.indexOf(field[0]);
+                if (f < 0) {
+                    f = names.size();
+                    names.add(field[0]);
+                    signalsByFile.add(new ArrayList<>());
+                    formatByFile.add(new int[] {format, offset});
+                } else if (formatByFile.get(f)[0] != format) {
+                    throw new IOException("Mixed formats in " + field[0] + ": " + header);
+                }
+                signalsByFile.get(f).add(s);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IOException("Malformed signal line " + s + ": " + header);
+            }
+        }
+
+        mFiles = new SignalFile[names.size()];
+        try {
+            for (int f = 0; f < mFiles.length; f++) {
+                final List<Integer> signals = signalsByFile.get(f);
+                final int[] indices = new int[signals.size()];
+                for (int i = 0; i < indices.length; i++)
+                    indices[i] = signals.get(i);
+                mFiles[f] = new SignalFile(new File(header.getParentFile(), names.get(f)),
+                        formatByFile.get(f)[0], formatByFile.get(f)[1], indices);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Part of a field before any of the delimiters
+     */
+    private static String leading(String field, String delimiters) {
+        for (int i = 0; i < field.length(); i++) {
+            if (delimiters.indexOf(field.charAt(i)) >= 0)
+                return field.substring(0, i);
+        }
+        return field;
+    }
+
+    public int getSignalCount() { return mSignals; }
+
+    /**
+     * Frames per second
+     */
+    public double getFrequency() { return mFrequency; }
+
+    /**
+     * Number of frames, 0 if the header does not tell
+     */
+    public long getFrameCount() { return mFrames; }
+
+    public float getGain(int signal) { return mGain[signal]; }
+
+    public float getBaseline(int signal) { return mBaseline[signal]; }
+
+    public String getUnits(int signal) { return mUnits[signal]; }
+
+    public String getDescription(int signal) { return mDescription[signal]; }
+
+    /**
+     * Index of the next frame to read
+     */
+    public long getPosition() { return mPosition; }
+
+    /**
+     * Move to a frame, to read a window of a long record
+     *
+     * @param frame index of the next frame to read
+     * @throws IOException if the signal files cannot be read
+     */
+    public void seek(long frame) throws IOException {
+        if (frame < 0) {
+            Log.e(TAG, "Illegal argument");
+            return;
+        }
+        for (SignalFile file: mFiles)
+            file.seek(frame);
+        mPosition = frame;
+    }
+
+    /**
+     * Decode the next frames
+     * Frames are interleaved, signal s of frame f is at offset + f * signals + s
+     *
+     * @param frames receives the values in physical units
+     * @param offset index of the first value
+     * @param count maximum number of frames
+     * @return number of frames read, -1 at the end of the record
+     * @throws IOException if the signal files cannot be read
+     */
+    public int read(float[] frames, int offset, int count) throws IOException {
+        if (offset < 0 || count < 0 || offset + count * mSignals > frames.length) {
+            Log.e(TAG, "Illegal argument");
+            return -1;
+        }
+        if (mFrames > 0) {
+            if (mPosition >= mFrames)
+                return -1;
+            count = (int) Math.min(count, mFrames - mPosition);
+        }
+        int n = 0;
+        decode:
+        for (; n < count; n++) {
+            final int base = offset + n * mSignals;
+            for (SignalFile file: mFiles) {
+                for (int s: file.mSignals) {
+                    if (!file.next())
+                        break decode; // A partial frame at the end is dropped
+                    frames[base + s] = (file.mSample - mBaseline[s]) / mGain[s];
+                }
+            }
+        }
+        mPosition += n;
+        return n == 0 && count > 0 ? -1 : n;
+    }
+
+    /**
+     * Load the rest of the record into a series, x in seconds from the first frame of the record
+     * A static series is cleared and filled with the frames, call it on the UI thread.
+     * A dynamic series gets the frames appended, call it from the acquisition thread,
+     * with the BLOCK overflow policy to keep every frame
+     *
+     * @param series destination, with as many channels as the record has signals
+     * @param invalidate invalidate or not
+     * @return number of frames loaded
+     * @throws IOException if the signal files cannot be read
+     * @see DataSeries#setChannelCount(int)
+     */
+    public long readInto(DataSeries series, boolean invalidate) throws IOException {
+        if (series.getChannelCount() != mSignals) {
+            Log.e(TAG, "Illegal argument");
+            return 0;
+        }
+        final float[] frames = new float[READ_FRAMES * mSignals];
+        final boolean isStatic = series.getGraphType() == DataSeries.STATIC_GRAPH;
+        final double[] x = isStatic ? new double[READ_FRAMES] : null;
+        if (isStatic)
+            series.clear();
+        final double interval = 1 / mFrequency;
+        long total = 0;
+        int n;
+        while (true) {
+            final long first = mPosition;
+            if ((n = read(frames, 0, READ_FRAMES)) <= 0)
+                break;
+            total += n;
+            if (isStatic) {
+                for (int i = 0; i < n; i++)
+                    x[i] = (first + i) * interval;
+                series.addStaticFrames(x, 0, frames, 0, n, invalidate);
+            } else {
+                series.appendFrames(frames, 0, n, interval, invalidate);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (SignalFile file: mFiles) {
+            if (file == null)
+                continue;
+            try {
+                file.mChannel.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Signal file, its signals are interleaved frame by frame
+     */
+    private static final class SignalFile {
+
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer;
+        private final int mFormat;
+
+        /**
+         * Byte offset of the first sample
+         */
+        private final long mOffset;
+
+        /**
+         * Signals of the file, in the order they are stored
+         */
+        final int[] mSignals;
+
+        /**
+         * Last sample decoded
+         */
+        int mSample;
+
+        /**
+         * Format 212 packs two samples in 3 bytes, the second one waits here
+         */
+        private int mPending;
+        private boolean hasPending;
+
+        SignalFile(File file, int format, long offset, int[] signals) throws IOException {
+            mChannel = new FileInputStream(file).getChannel();
+            mBuffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            mFormat = format;
+            mOffset = offset;
+            mSignals = signals;
+            seek(0);
+        }
+
+        void seek(long frame) throws IOException {
+            final long sample = frame * mSignals.length;
+            mBuffer.clear().limit(0);
+            hasPending = false;
+            if (mFormat == 16) {
+                mChannel.position(mOffset + sample * 2);
+            } else {
+                mChannel.position(mOffset + sample / 2 * 3);
+                if (sample % 2 != 0)
+                    next();
+            }
+        }
+
+        /**
+         * Make n bytes readable, reading the next chunk if needed
+         *
+         * @return false at the end of the file
+         */
+        private boolean ensure(int n) throws IOException {
+            if (mBuffer.remaining() >= n)
+                return true;
+            mBuffer.compact();
+            while (mBuffer.position() < n) {
+                if (mChannel.read(mBuffer) < 0) {
+                    mBuffer.flip();
+                    return false;
+                }
+            }
+            mBuffer.flip();
+            return true;
+        }
+
+        /**
+         * Decode the next sample into mSample
+         *
+         * @return false at the end of the file
+         */
+        boolean next() throws IOException {
+            if (mFormat == 16) {
+                if (!ensure(2))
+                    return false;
+                mSample = mBuffer.getShort();
+                return true;
+            }
+            if (hasPending) {
+                hasPending = false;
+                mSample = mPending;
+                return true;
+            }
+            if (!ensure(3))
+                return false;
+            final int b0 = mBuffer.get() & 0xFF;
+            final int b1 = mBuffer.get() & 0xFF;
+            final int b2 = mBuffer.get() & 0xFF;
+            // Two 12-bit two's complement samples, the middle byte holds their high nibbles
+            mSample = ((b1 & 0x0F) << 8 | b0) << 20 >> 20;
+            mPending = ((b1 & 0xF0) << 4 | b2) << 20 >> 20;
+            hasPending = true;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.rainbowpuppeteer.ecgview;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Wrapped Source
+ * Sample source reading straight from storage owned by the caller, nothing is copied
+ *
+ * x values are either implicit, x0 + i * dx, or read from an x array
+ * Frames are interleaved, channel c of frame f is at f * channels + c, or stored in one lane per channel
+ *
+ * The y bounds are computed on first use and kept,
+ * set the source on the series again after changing the stored values
+ *
+ * @author RainbowPuppeteer
+ * @see SampleSource#wrap(float[], int, double, double)
+ */
+abstract class WrappedSource extends SampleSource {
+
+    private final int mChannels;
+    private final int mSize;
+
+    /**
+     * Implicit x values, used if mX is null
+     */
+    private final double mX0;
+    private final double mDx;
+    private final double[] mX;
+
+    private boolean hasBounds;
+    private double mYMin, mYMax;
+
+    WrappedSource(int channels, int size, double x0, double dx, double[] x) {
+        mChannels = channels;
+        mSize = size;
+        mX0 = x0;
+        mDx = dx;
+        mX = x;
+    }
+
+    @Override
+    public final int size() {
+        return mSize;
+    }
+
+    @Override
+    public final int channels() {
+        return mChannels;
+    }
+
+    @Override
+    public final double getX(int i) {
+        return mX == null ? mX0 + i * mDx : mX[i];
+    }
+
+    @Override
+    public final int floorIndex(double x) {
+        if (mX != null)
+            return super.floorIndex(x);
+        // Evenly spaced, no search
+        final double i = Math.floor((x - mX0) / mDx + 1e-9);
+        return (int) Math.max(-1, Math.min(mSize - 1, i));
+    }
+
+    @Override
+    public final double getYMax() {
+        computeBounds();
+        return mYMax;
+    }
+
+    @Override
+    public final double getYMin() {
+        computeBounds();
+        return mYMin;
+    }
+
+    /**
+     * Forget the y bounds, the stored values changed
+     */
+    void refresh() {
+        hasBounds = false;
+    }
+
+    private void computeBounds() {
+        if (hasBounds)
+            return;
+        float min = 0, max = 0;
+        for (int c = 0; c < mChannels; c++) {
+            for (int i = 0; i < mSize; i++) {
+                final float y = getY(c, i);
+                if ((c == 0 && i == 0) || y < min)
+                    min = y;
+                if ((c == 0 && i == 0) || y > max)
+                    max = y;
+            }
+        }
+        mYMin = min;
+        mYMax = max;
+        hasBounds = true;
+    }
+
+    static final class FloatFrames extends WrappedSource {
+
+        private final float[] mFrames;
+
+        FloatFrames(float[] frames, int channels, double x0, double dx, double[] x) {
+            super(channels, frames.length / channels, x0, dx, x);
+            mFrames = frames;
+        }
+
+        @Override
+        public float getY(int channel, int i) {
+            return mFrames[i * channels() + channel];
+        }
+    }
+
+    static final class FloatLanes extends WrappedSource {
+
+        private final float[][] mLanes;
+
+        FloatLanes(float[][] lanes, int size, double x0, double dx, double[] x) {
+            super(lanes.length, size, x0, dx, x);
+            mLanes = lanes;
+        }
+
+        @Override
+        public float getY(int channel, int i) {
+            return mLanes[channel][i];
+        }
+    }
+
+    static final class DoubleFrames extends WrappedSource {
+
+        private final double[] mFrames;
+
+        DoubleFrames(double[] frames, int channels, double x0, double dx, double[] x) {
+            super(channels, frames.length / channels, x0, dx, x);
+            mFrames = frames;
+        }
+
+        @Override
+        public float getY(int channel, int i) {
+            return (float) mFrames[i * channels() + channel];
+        }
+    }
+
+    /**
+     * Frames from the position of the buffer at wrap time to its limit
+     */
+    static final class FloatBufferFrames extends WrappedSource {
+
+        private final FloatBuffer mFrames;
+        private final int mBase;
+
+        FloatBufferFrames(FloatBuffer frames, int channels, double x0, double dx, double[] x) {
+            super(channels, frames.remaining() / channels, x0, dx, x);
+            mFrames = frames;
+            mBase = frames.position();
+        }
+
+        @Override
+        public float getY(int channel, int i) {
+            return mFrames.get(mBase + i * channels() + channel);
+        }
+    }
+
+    /**
+     * ADC counts, value = offset + count * gain
+     */
+    static final class ShortBufferFrames extends WrappedSource {
+
+        private final ShortBuffer mFrames;
+        private final int mBase;
+        private final float mGain;
+        private final float mOffset;
+
+        ShortBufferFrames(ShortBuffer frames, int channels, float gain, float offset,
+                          double x0, double dx, double[] x) {
+            super(channels, frames.remaining() / channels, x0, dx, x);
+            mFrames = frames;
+            mBase = frames.position();
+            mGain = gain;
+            mOffset = offset;
+        }
+
+        @Override
+        public float getY(int channel, int i) {
+            return mOffset + mFrames.get(mBase + i * channels() + channel) * mGain;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.rainbowpuppeteer.ecgview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads the record.edf fixture: EDF+C, 8 records of 1 s, two signals of 64 samples per record
+ * and an annotations signal with one "Beat N" annotation at 3.5 s lasting 1.5 s
+ * Digital values are 10 * i and -10 * i for sample i, 0.1 uV per count
+ */
+public class EdfReaderTest {
+
+    private static final int RECORDS = 8;
+    private static final int SAMPLES_PER_RECORD = 64;
+
+    private EdfReader mReader;
+
+    @Before
+    public void setUp() throws Exception {
+        mReader = new EdfReader(new File(getClass().getResource("record.edf").toURI()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReader.close();
+    }
+
+    @Test
+    public void header() {
+        assertTrue(mReader.isEdfPlus());
+        assertEquals(3, mReader.getSignalCount());
+        assertEquals(RECORDS, mReader.getRecordCount());
+        assertEquals(1, mReader.getRecordDuration(), 0);
+        assertEquals(2, mReader.getAnnotationSignal());
+        assertEquals("ECG II", mReader.getLabel(1));
+        assertEquals("mV", mReader.getUnits(0));
+        assertEquals(SAMPLES_PER_RECORD, mReader.getFrequency(0), 0);
+        assertEquals("01.02.24 10.00.00", mReader.getStart());
+    }
+
+    @Test
+    public void source_readsPhysicalValues() {
+        final SampleSource source = mReader.getSource(0, 1);
+        assertEquals(RECORDS * SAMPLES_PER_RECORD, source.size());
+        assertEquals(2, source.channels());
+        // Backwards, so pages are read out of order
+        for (int i = source.size() - 1; i >= 0; i--) {
+            assertEquals(i / (double) SAMPLES_PER_RECORD, source.getX(i), 1e-9);
+            assertEquals(i * 1e-3, source.getY(0, i), 1e-6);
+            assertEquals(-i * 1e-3, source.getY(1, i), 1e-6);
+        }
+        assertEquals(SAMPLES_PER_RECORD, source.floorIndex(1.0));
+        assertEquals(-1, source.floorIndex(-0.5));
+        assertEquals(source.size() - 1, source.floorIndex(100));
+    }
+
+    @Test
+    public void annotations() throws Exception {
+        final List<EdfReader.Annotation> annotations = mReader.readAnnotations();
+        assertEquals(1, annotations.size());
+        assertEquals(3.5, annotations.get(0).getOnset(), 0);
+        assertEquals(1.5, annotations.get(0).getDuration(), 0);
+        assertEquals("Beat N", annotations.get(0).getText());
+    }
+}
@@ -0,0 +1,116 @@
+package com.rainbowpuppeteer.ecgview;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pyramids built incrementally, from growing samples or a bounded number of samples at a time,
+ * must be identical to the one built at once, which must match a brute force min and max
+ */
+public class LodPyramidTest {
+
+    private static final int CHANNELS = 3;
+    private static final int SIZE = 100_003;
+
+    private final float[][] mLanes = new float[CHANNELS][SIZE];
+    private final double[] mX = new double[SIZE];
+    private final float[] mFrames = new float[SIZE * CHANNELS];
+
+    public LodPyramidTest() {
+        final Random random = new Random(7);
+        for (int i = 0; i < SIZE; i++) {
+            mX[i] = i;
+            for (int c = 0; c < CHANNELS; c++)
+                mFrames[i * CHANNELS + c] = mLanes[c][i] = (float) random.nextGaussian();
+        }
+    }
+
+    @Test
+    public void full_matchesBruteForce() {
+        final LodPyramid pyramid = new LodPyramid();
+        pyramid.update(samples());
+        assertEquals(SIZE, pyramid.size());
+        for (int level = 0; level < pyramid.levels(); level++) {
+            final int shift = LodPyramid.shift(level);
+            assertEquals((SIZE + (1 << shift) - 1) >> shift, pyramid.buckets(level));
+            for (int c = 0; c < CHANNELS; c++) {
+                for (int b = 0; b < pyramid.buckets(level); b += 13) {
+                    float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+                    for (int i = b << shift; i < Math.min(SIZE, (b + 1) << shift); i++) {
+                        min = Math.min(min, mLanes[c][i]);
+                        max = Math.max(max, mLanes[c][i]);
+                    }
+                    assertEquals(min, pyramid.min(level, c, b), 0);
+                    assertEquals(max, pyramid.max(level, c, b), 0);
+                }
+            }
+        }
+        assertEquals(1, pyramid.buckets(pyramid.levels() - 1));
+    }
+
+    @Test
+    public void bounded_matchesFull() {
+        final SampleView source = samples();
+        final LodPyramid full = new LodPyramid();
+        full.update(source);
+        // Not a multiple of the bucket size, so buckets are split between updates
+        final LodPyramid bounded = new LodPyramid();
+        int updates = 1;
+        while (!bounded.update(source, 777))
+            updates++;
+        assertEquals((SIZE + 776) / 777, updates);
+        assertPyramidEquals(full, bounded);
+    }
+
+    @Test
+    public void growing_matchesFull() {
+        final LodPyramid full = new LodPyramid();
+        full.update(samples());
+        final SampleBuffer buffer = new SampleBuffer(SIZE, CHANNELS);
+        final LodPyramid growing = new LodPyramid();
+        final Random random = new Random(11);
+        for (int i = 0; i < SIZE; ) {
+            final int n = Math.min(SIZE - i, random.nextInt(5000) + 1);
+            buffer.addFrames(mX, i, mFrames, i * CHANNELS, n);
+            growing.update(buffer);
+            i += n;
+        }
+        assertPyramidEquals(full, growing);
+    }
+
+    @Test
+    public void levelFor() {
+        final LodPyramid pyramid = new LodPyramid();
+        pyramid.update(samples());
+        assertEquals(-1, pyramid.levelFor(1));
+        assertEquals(0, pyramid.levelFor(1 << LodPyramid.BASE_SHIFT));
+        assertEquals(2, pyramid.levelFor((1 << LodPyramid.shift(2)) + 1));
+        assertEquals(pyramid.levels() - 1, pyramid.levelFor(Double.MAX_VALUE));
+    }
+
+    /**
+     * Every sample in one buffer
+     */
+    private SampleBuffer samples() {
+        final SampleBuffer buffer = new SampleBuffer(SIZE, CHANNELS);
+        buffer.addFrames(mX, 0, mFrames, 0, SIZE);
+        return buffer;
+    }
+
+    private static void assertPyramidEquals(LodPyramid expected, LodPyramid actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.levels(), actual.levels());
+        for (int level = 0; level < expected.levels(); level++) {
+            assertEquals(expected.buckets(level), actual.buckets(level));
+            for (int c = 0; c < CHANNELS; c++) {
+                for (int b = 0; b < expected.buckets(level); b++) {
+                    assertEquals(expected.min(level, c, b), actual.min(level, c, b), 0);
+                    assertEquals(expected.max(level, c, b), actual.max(level, c, b), 0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.rainbowpuppeteer.ecgview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Samples written by RecordingWriter are read back by RecordingReader
+ * within half a count, with evenly and unevenly spaced blocks
+ */
+public class RecordingTest {
+
+    private static final int CHANNELS = 3;
+    private static final int FRAMES = 10_000;
+    private static final float GAIN = 0.001f;
+    private static final float OFFSET = 0.5f;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("recording", ".ecgr");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException, InterruptedException {
+        final double[] dx = new double[FRAMES];
+        final float[][] y = new float[CHANNELS][FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            // Even blocks first, then jittered ones
+            dx[i] = i < FRAMES / 2 ? 0.004 : (i % 2 == 0 ? 0.002 : 0.003);
+            for (int c = 0; c < CHANNELS; c++)
+                y[c][i] = (float) Math.sin(i * 0.01 + c) * (c + 1);
+        }
+
+        final RecordingWriter writer = new RecordingWriter(mFile, CHANNELS, GAIN, OFFSET);
+        for (int offset = 0; offset < FRAMES; offset += 1000)
+            writer.write(dx, y, offset, Math.min(1000, FRAMES - offset));
+        writer.close();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getWrittenFrames() < FRAMES && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(FRAMES, writer.getWrittenFrames());
+        assertEquals(0, writer.getDroppedFrames());
+
+        try (RecordingReader reader = new RecordingReader(mFile)) {
+            assertEquals(CHANNELS, reader.getChannelCount());
+            assertEquals(GAIN, reader.getGain(), 0);
+            assertEquals(OFFSET, reader.getOffset(), 0);
+            final double[] x = new double[reader.getBlockFrames()];
+            final float[] frames = new float[reader.getBlockFrames() * CHANNELS];
+            int k = 0;
+            double expectedX = 0;
+            int n;
+            while ((n = reader.readBlock(x, frames)) > 0) {
+                for (int i = 0; i < n; i++, k++) {
+                    expectedX += dx[k];
+                    assertEquals(expectedX, x[i], 1e-5);
+                    for (int c = 0; c < CHANNELS; c++)
+                        assertEquals(y[c][k], frames[i * CHANNELS + c], GAIN / 2 + 1e-6);
+                }
+            }
+            assertEquals(FRAMES, k);
+        }
+    }
+
+    @Test
+    public void skip_keepsTimeline() throws IOException, InterruptedException {
+        final double[] dx = new double[100];
+        final float[][] y = new float[CHANNELS][100];
+        Arrays.fill(dx, 0.004);
+
+        final RecordingWriter writer = new RecordingWriter(mFile, CHANNELS, GAIN, OFFSET);
+        writer.write(dx, y, 0, 50);
+        writer.skip(1.5);
+        writer.write(dx, y, 50, 50);
+        writer.close();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getWrittenFrames() < 100 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(100, writer.getWrittenFrames());
+
+        try (RecordingReader reader = new RecordingReader(mFile)) {
+            final double[] x = new double[reader.getBlockFrames()];
+            final float[] frames = new float[reader.getBlockFrames() * CHANNELS];
+            assertEquals(50, reader.readBlock(x, frames));
+            assertEquals(50 * 0.004, x[49], 1e-9);
+            assertEquals(50, reader.readBlock(x, frames));
+            assertEquals(51 * 0.004 + 1.5, x[0], 1e-9);
+            assertEquals(100 * 0.004 + 1.5, x[49], 1e-9);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notARecording_throws() throws IOException {
+        new RecordingReader(mFile).close();
+    }
+}
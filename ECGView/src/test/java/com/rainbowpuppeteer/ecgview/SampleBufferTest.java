@@ -0,0 +1,136 @@
+package com.rainbowpuppeteer.ecgview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Random appends, removals and capacity changes compared with a plain list of the expected samples
+ * y values are multiples of a quarter, so quantizing them with a gain of 0.25 is exact
+ */
+public class SampleBufferTest {
+
+    private static final int CHANNELS = 2;
+    private static final double INTERVAL = 0.5;
+
+    @Test
+    public void storedX_matchesReference() {
+        check(new SampleBuffer(64, CHANNELS), false);
+    }
+
+    @Test
+    public void implicitX_matchesReference() {
+        final SampleBuffer buffer = new SampleBuffer(64, CHANNELS);
+        buffer.setSampleInterval(INTERVAL);
+        check(buffer, true);
+    }
+
+    @Test
+    public void quantized_matchesReference() {
+        final SampleBuffer buffer = new SampleBuffer(64, CHANNELS);
+        buffer.setQuantization(0.25f, 0);
+        assertTrue(buffer.isQuantized());
+        check(buffer, false);
+    }
+
+    @Test
+    public void quantized_clampsToShortRange() {
+        final SampleBuffer buffer = new SampleBuffer(4, 1);
+        buffer.setQuantization(1, 0);
+        buffer.add(1, 1e6f);
+        buffer.add(2, -1e6f);
+        assertEquals(Short.MAX_VALUE, buffer.getY(0, 0), 0);
+        assertEquals(Short.MIN_VALUE, buffer.getY(0, 1), 0);
+        assertEquals(Short.MAX_VALUE, buffer.maxY(), 0);
+        assertEquals(Short.MIN_VALUE, buffer.minY(), 0);
+    }
+
+    /**
+     * Run random operations on the buffer and a reference list, comparing them after each one
+     *
+     * @param implicit x values are (seq + 1) * INTERVAL instead of the accumulated deltas
+     */
+    private static void check(SampleBuffer buffer, boolean implicit) {
+        final Random random = new Random(42);
+        final List<double[]> reference = new ArrayList<>();
+        double lastX = 0;
+        long seq = 0;
+        int capacity = buffer.capacity();
+
+        for (int step = 0; step < 2000; step++) {
+            final int op = random.nextInt(10);
+            if (op < 7) {
+                // Append a run of deltas, sometimes longer than the buffer
+                final int length = random.nextInt(op == 0 ? 3 * capacity : 16) + 1;
+                final double[] dx = new double[length + 1];
+                final float[][] y = new float[CHANNELS][length + 1];
+                for (int i = 1; i <= length; i++) {
+                    dx[i] = (random.nextInt(4) + 1) * 0.25;
+                    for (int c = 0; c < CHANNELS; c++)
+                        y[c][i] = (random.nextInt(801) - 400) * 0.25f;
+                    lastX += dx[i];
+                    final double x = implicit ? (seq + 1) * INTERVAL : lastX;
+                    reference.add(new double[]{x, y[0][i], y[1][i]});
+                    seq++;
+                }
+                buffer.addDeltas(dx, y, 1, length);
+            } else if (op < 9) {
+                final int n = random.nextInt(reference.size() + 1);
+                buffer.removeFirst(n);
+                reference.subList(0, n).clear();
+            } else {
+                capacity = random.nextInt(100) + 1;
+                buffer.setCapacity(capacity);
+            }
+            while (reference.size() > capacity)
+                reference.remove(0);
+            compare(buffer, reference, random);
+        }
+    }
+
+    private static void compare(SampleBuffer buffer, List<double[]> reference, Random random) {
+        final int size = reference.size();
+        assertEquals(size, buffer.size());
+        assertEquals(size == 0, buffer.isEmpty());
+        assertEquals(size == buffer.capacity(), buffer.isFull());
+        double max = Double.NEGATIVE_INFINITY, min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            final double[] sample = reference.get(i);
+            assertEquals(sample[0], buffer.getX(i), 1e-9);
+            for (int c = 0; c < CHANNELS; c++) {
+                assertEquals(sample[1 + c], buffer.getY(c, i), 0);
+                max = Math.max(max, sample[1 + c]);
+                min = Math.min(min, sample[1 + c]);
+            }
+        }
+        if (size > 0) {
+            assertEquals(max, buffer.maxY(), 0);
+            assertEquals(min, buffer.minY(), 0);
+        }
+
+        // Before, between, on and after the samples
+        for (int k = 0; k < 8; k++) {
+            final double x = size == 0 ? random.nextDouble()
+                    : reference.get(0)[0] - 1 + random.nextDouble() * (reference.get(size - 1)[0] - reference.get(0)[0] + 2);
+            assertEquals(floorIndex(reference, x), buffer.floorIndex(x));
+        }
+        for (int i = 0; i < size; i += Math.max(1, size / 8))
+            assertEquals(i, buffer.floorIndex(reference.get(i)[0]));
+    }
+
+    /**
+     * Last sample whose x value is not greater than x, by a linear search
+     */
+    private static int floorIndex(List<double[]> reference, double x) {
+        int index = -1;
+        for (int i = 0; i < reference.size(); i++) {
+            if (reference.get(i)[0] <= x)
+                index = i;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,125 @@
+package com.rainbowpuppeteer.ecgview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Impulse responses, gains at 0 Hz and at the rejected frequencies of the filter stages
+ */
+public class SampleFilterTest {
+
+    private static final double FS = 500;
+
+    @Test
+    public void fir_impulseResponseIsTheTaps() {
+        final float[] taps = {0.5f, 0.25f, -0.125f, 0.0625f};
+        final FirFilter filter = new FirFilter(taps);
+        filter.reset(2);
+        final float[] y = impulse(8);
+        // Split in two calls, the history carries over
+        filter.process(1, y, 0, 3);
+        filter.process(1, y, 3, 5);
+        for (int i = 0; i < y.length; i++)
+            assertEquals(i < taps.length ? taps[i] : 0, y[i], 0);
+    }
+
+    @Test
+    public void firLowPass_unitGainAtDc() {
+        final FirFilter filter = FirFilter.lowPass(FS, 40, 31);
+        assertEquals(15, filter.getDelay());
+        filter.reset(1);
+        final float[] y = constant(200, 2);
+        filter.process(0, y, 0, y.length);
+        // Once the taps are filled
+        for (int i = 31; i < y.length; i++)
+            assertEquals(2, y[i], 1e-5);
+    }
+
+    @Test
+    public void biquad_impulseResponseFollowsTheDifferenceEquation() {
+        final BiquadFilter filter = new BiquadFilter(0.5, 0.25, 0.125, -0.5, 0.25);
+        filter.reset(1);
+        final float[] y = impulse(6);
+        filter.process(0, y, 0, y.length);
+        double y1 = 0, y2 = 0;
+        for (int i = 0; i < y.length; i++) {
+            final double x = i == 0 ? 1 : 0, x1 = i == 1 ? 1 : 0, x2 = i == 2 ? 1 : 0;
+            final double expected = 0.5 * x + 0.25 * x1 + 0.125 * x2 + 0.5 * y1 - 0.25 * y2;
+            assertEquals(expected, y[i], 1e-6);
+            y2 = y1;
+            y1 = expected;
+        }
+    }
+
+    @Test
+    public void biquadLowPass_unitGainAtDc() {
+        final BiquadFilter filter = BiquadFilter.lowPass(FS, 40, BiquadFilter.BUTTERWORTH_Q);
+        filter.reset(1);
+        final float[] y = constant(2000, 1);
+        filter.process(0, y, 0, y.length);
+        assertEquals(1, y[y.length - 1], 1e-5);
+    }
+
+    @Test
+    public void biquadHighPass_removesDc() {
+        final BiquadFilter filter = BiquadFilter.highPass(FS, 0.5, BiquadFilter.BUTTERWORTH_Q);
+        filter.reset(1);
+        final float[] y = constant(20_000, 1);
+        filter.process(0, y, 0, y.length);
+        assertEquals(0, y[y.length - 1], 1e-4);
+    }
+
+    @Test
+    public void notch_rejectsItsFrequencyOnly() {
+        assertEquals(0, gain(BiquadFilter.notch(FS, 50, 30), 50), 1e-3);
+        assertEquals(1, gain(BiquadFilter.notch(FS, 50, 30), 10), 1e-2);
+        assertEquals(1, gain(BiquadFilter.notch(FS, 50, 30), 0), 1e-5);
+    }
+
+    @Test
+    public void factories_rejectIllegalFrequencies() {
+        assertNull(BiquadFilter.lowPass(FS, FS / 2, 1));
+        assertNull(FirFilter.lowPass(FS, 40, 30));
+    }
+
+    @Test
+    public void medianBaseline_removesDcAndKeepsSpikes() {
+        final MedianBaseline filter = new MedianBaseline(10);
+        assertEquals(5, filter.getDelay());
+        filter.reset(1);
+        final float[] y = constant(100, 3);
+        y[50] = 4;
+        filter.process(0, y, 0, y.length);
+        // The spike comes out half a window later, on a flat baseline
+        for (int i = 0; i < y.length; i++)
+            assertEquals(i == 50 + filter.getDelay() ? 1 : 0, y[i], 0);
+    }
+
+    /**
+     * Amplitude of the settled response to a cosine
+     */
+    private static double gain(SampleFilter filter, double f) {
+        filter.reset(1);
+        final float[] y = new float[(int) FS * 4];
+        for (int i = 0; i < y.length; i++)
+            y[i] = (float) Math.cos(2 * Math.PI * f * i / FS);
+        filter.process(0, y, 0, y.length);
+        double peak = 0;
+        for (int i = y.length / 2; i < y.length; i++)
+            peak = Math.max(peak, Math.abs(y[i]));
+        return peak;
+    }
+
+    private static float[] impulse(int length) {
+        final float[] y = new float[length];
+        y[0] = 1;
+        return y;
+    }
+
+    private static float[] constant(int length, float value) {
+        final float[] y = new float[length];
+        java.util.Arrays.fill(y, value);
+        return y;
+    }
+}
@@ -0,0 +1,90 @@
+package com.rainbowpuppeteer.ecgview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * A producer thread offers numbered samples while the test thread drains them,
+ * what reaches the buffer must be in order and nothing may get lost unaccounted
+ */
+public class SampleQueueTest {
+
+    private static final int SAMPLES = 200_000;
+
+    @Test
+    public void dropOldest_keepsOrderAndCount() throws InterruptedException {
+        drain(DataSeries.OverflowPolicy.DROP_OLDEST);
+    }
+
+    @Test
+    public void dropNewest_keepsOrderAndCount() throws InterruptedException {
+        drain(DataSeries.OverflowPolicy.DROP_NEWEST);
+    }
+
+    @Test
+    public void block_deliversEverySample() throws InterruptedException {
+        final SampleBuffer buffer = drain(DataSeries.OverflowPolicy.BLOCK);
+        assertEquals(SAMPLES, buffer.size());
+        for (int i = 0; i < SAMPLES; i++) {
+            assertEquals(i, buffer.getY(0, i), 0);
+            assertEquals(i + 1, buffer.getX(i), 0);
+        }
+    }
+
+    @Test
+    public void dropOldest_keepsBacklogBelowCapacity() {
+        final SampleQueue queue = new SampleQueue(256, DataSeries.OverflowPolicy.DROP_OLDEST, () -> {}, 1);
+        final SampleBuffer buffer = new SampleBuffer(256, 1);
+        final int count = queue.capacity() - 1;
+        for (int i = 0; i < count; i++)
+            queue.offer(1, i);
+        assertEquals(count, queue.drainTo(buffer, null, null));
+        assertEquals(0, queue.getDropped());
+        assertEquals(count, buffer.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, buffer.getY(0, i), 0);
+            assertEquals(i + 1, buffer.getX(i), 0);
+        }
+    }
+
+    @Test
+    public void frames_keepChannelsTogether() {
+        final SampleQueue queue = new SampleQueue(64, DataSeries.OverflowPolicy.BLOCK, () -> {}, 2);
+        final SampleBuffer buffer = new SampleBuffer(64, 2);
+        queue.offerFrames(new float[]{1, -1, 2, -2, 3, -3}, 0, 3, 0.5);
+        assertEquals(3, queue.pending());
+        assertEquals(3, queue.drainTo(buffer, null, null));
+        assertEquals(0, queue.pending());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, buffer.getY(0, i), 0);
+            assertEquals(-(i + 1), buffer.getY(1, i), 0);
+            assertEquals((i + 1) * 0.5, buffer.getX(i), 0);
+        }
+    }
+
+    /**
+     * Offer SAMPLES samples y = 0, 1, 2... through a small queue and drain them concurrently
+     *
+     * @return buffer holding the drained samples
+     */
+    private static SampleBuffer drain(DataSeries.OverflowPolicy policy) throws InterruptedException {
+        final SampleQueue queue = new SampleQueue(256, policy, () -> {}, 1);
+        final SampleBuffer buffer = new SampleBuffer(SAMPLES, 1);
+        final Thread producer = new Thread(() -> {
+            for (int i = 0; i < SAMPLES; i++)
+                queue.offer(1, i);
+        });
+        producer.start();
+        long drained = 0;
+        while (producer.isAlive() || queue.pending() > 0)
+            drained += queue.drainTo(buffer, null, null);
+        producer.join();
+
+        assertEquals(drained, buffer.size());
+        assertEquals(SAMPLES, drained + queue.getDropped());
+        for (int i = 1; i < buffer.size(); i++)
+            assertTrue(buffer.getY(0, i) > buffer.getY(0, i - 1));
+        return buffer;
+    }
+}
@@ -0,0 +1,81 @@
+package com.rainbowpuppeteer.ecgview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads the record fixture: two signals in format 212 sharing record.dat,
+ * and one in format 16 after a 4 byte prefix in record_16.dat
+ * ADC values are (i * 7) % 4000 - 2000, -(i % 2048) and i * 30 - 15000 for frame i
+ */
+public class WfdbReaderTest {
+
+    private static final int FRAMES = 500;
+
+    private WfdbReader mReader;
+
+    @Before
+    public void setUp() throws Exception {
+        mReader = new WfdbReader(new File(getClass().getResource("record.hea").toURI()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReader.close();
+    }
+
+    @Test
+    public void header() {
+        assertEquals(3, mReader.getSignalCount());
+        assertEquals(360, mReader.getFrequency(), 0);
+        assertEquals(FRAMES, mReader.getFrameCount());
+        assertEquals(200, mReader.getGain(0), 0);
+        assertEquals(1024, mReader.getBaseline(0), 0);
+        assertEquals("mV", mReader.getUnits(0));
+        assertEquals("MLII", mReader.getDescription(0));
+        assertEquals(100, mReader.getGain(1), 0);
+        assertEquals(5, mReader.getBaseline(1), 0);
+        assertEquals("uV", mReader.getUnits(1));
+        assertEquals("V5 lead", mReader.getDescription(1));
+        // Gain 0 means the default of 200
+        assertEquals(200, mReader.getGain(2), 0);
+    }
+
+    @Test
+    public void read_decodesEveryFrame() throws Exception {
+        final float[] frames = new float[3 * 128];
+        int k = 0;
+        int n;
+        while ((n = mReader.read(frames, 0, 128)) > 0) {
+            for (int i = 0; i < n; i++, k++)
+                assertFrame(frames, i, k);
+        }
+        assertEquals(FRAMES, k);
+        assertEquals(FRAMES, mReader.getPosition());
+    }
+
+    @Test
+    public void seek() throws Exception {
+        final float[] frames = new float[3];
+        mReader.seek(377);
+        assertEquals(1, mReader.read(frames, 0, 1));
+        assertFrame(frames, 0, 377);
+        assertEquals(378, mReader.getPosition());
+        mReader.seek(FRAMES);
+        assertEquals(-1, mReader.read(frames, 0, 1));
+    }
+
+    /**
+     * Check frame i of the array against frame k of the record
+     */
+    private static void assertFrame(float[] frames, int i, int k) {
+        assertEquals(((k * 7) % 4000 - 2000 - 1024) / 200f, frames[3 * i], 1e-6);
+        assertEquals((-(k % 2048) - 5) / 100f, frames[3 * i + 1], 1e-6);
+        assertEquals((k * 30 - 15000) / 200f, frames[3 * i + 2], 1e-6);
+    }
+}